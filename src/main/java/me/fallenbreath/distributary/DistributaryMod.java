@@ -21,6 +21,9 @@
 package me.fallenbreath.distributary;
 
 import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.config.ConfigWatcher;
+import me.fallenbreath.distributary.network.upstream.ConnectionPool;
+import me.fallenbreath.distributary.network.upstream.HealthChecker;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.metadata.ModMetadata;
@@ -43,5 +46,8 @@ public class DistributaryMod implements ModInitializer
 		MOD_VERSION = metadata.getVersion().getFriendlyString();
 
 		Config.load();
+		ConfigWatcher.startWatching();
+		HealthChecker.start();
+		ConnectionPool.start();
 	}
 }
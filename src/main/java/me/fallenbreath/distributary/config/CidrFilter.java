@@ -0,0 +1,230 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.config;
+
+import io.netty.util.NetUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable allow / deny list of IP prefixes in CIDR notation, like {@code 192.0.2.0/24} or {@code 2001:db8::/32}
+ * <p>
+ * The longest prefix that matches the address decides. If both lists have the same longest prefix, deny wins.
+ * An address matching no prefix is allowed, unless the allow list is not empty
+ * <p>
+ * Prefixes are compiled into a binary trie per address family, stored in plain int arrays,
+ * so a lookup costs at most 32 or 128 steps regardless of the prefix count, and the trie has no per-node objects
+ */
+public final class CidrFilter
+{
+	private static final byte NONE = 0;
+	private static final byte ALLOW = 1;
+	private static final byte DENY = 2;
+
+	private final Trie ipv4 = new Trie();
+	private final Trie ipv6 = new Trie();
+	private final boolean allowByDefault;
+	private final int allowCount;
+	private final int denyCount;
+
+	private CidrFilter(List<String> allow, List<String> deny)
+	{
+		this.allowByDefault = allow.isEmpty();
+		this.allowCount = allow.size();
+		this.denyCount = deny.size();
+		for (String cidr : allow)
+		{
+			this.insert(cidr, ALLOW);
+		}
+		for (String cidr : deny)
+		{
+			this.insert(cidr, DENY);
+		}
+		this.ipv4.trim();
+		this.ipv6.trim();
+	}
+
+	/**
+	 * @return null if both lists are empty, i.e. everything is allowed
+	 * @throws IllegalArgumentException if there's a bad CIDR
+	 */
+	@Nullable
+	public static CidrFilter compile(@Nullable List<String> allow, @Nullable List<String> deny)
+	{
+		allow = allow != null ? allow : Collections.emptyList();
+		deny = deny != null ? deny : Collections.emptyList();
+		return allow.isEmpty() && deny.isEmpty() ? null : new CidrFilter(allow, deny);
+	}
+
+	private void insert(String cidr, byte action)
+	{
+		int slash = cidr.indexOf('/');
+		String ip = slash >= 0 ? cidr.substring(0, slash) : cidr;
+		byte[] address = NetUtil.createByteArrayFromIpAddressString(ip);
+		if (address == null)
+		{
+			throw new IllegalArgumentException(String.format("bad CIDR \"%s\", \"%s\" is not an IP address", cidr, ip));
+		}
+		int prefixLength;
+		try
+		{
+			prefixLength = slash >= 0 ? Integer.parseInt(cidr.substring(slash + 1)) : address.length * 8;
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException(String.format("bad CIDR \"%s\", bad prefix length", cidr));
+		}
+		if (prefixLength < 0 || prefixLength > address.length * 8)
+		{
+			throw new IllegalArgumentException(String.format("bad CIDR \"%s\", prefix length should be within [0, %d]", cidr, address.length * 8));
+		}
+
+		// clients are matched with plain IPv4 addresses, see toIpv4
+		byte[] ipv4 = toIpv4(address);
+		if (ipv4 != null && address.length == 16)
+		{
+			if (prefixLength < 96)
+			{
+				throw new IllegalArgumentException(String.format("bad CIDR \"%s\", prefix of an IPv4-mapped address should be at least 96", cidr));
+			}
+			address = ipv4;
+			prefixLength -= 96;
+		}
+		(address.length == 4 ? this.ipv4 : this.ipv6).insert(address, prefixLength, action);
+	}
+
+	public boolean allows(InetAddress address)
+	{
+		byte[] bytes = address.getAddress();
+		byte[] ipv4 = toIpv4(bytes);
+		byte action = ipv4 != null ? this.ipv4.lookup(ipv4) : this.ipv6.lookup(bytes);
+		return action == NONE ? this.allowByDefault : action == ALLOW;
+	}
+
+	/**
+	 * @return the address itself if it's IPv4, the embedded IPv4 address if it's an IPv4-mapped IPv6 address, otherwise null
+	 */
+	@Nullable
+	private static byte[] toIpv4(byte[] address)
+	{
+		if (address.length == 4)
+		{
+			return address;
+		}
+		for (int i = 0; i < 10; i++)
+		{
+			if (address[i] != 0)
+			{
+				return null;
+			}
+		}
+		if (address[10] != (byte)0xFF || address[11] != (byte)0xFF)
+		{
+			return null;
+		}
+		return Arrays.copyOfRange(address, 12, 16);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("allow=%d, deny=%d", this.allowCount, this.denyCount);
+	}
+
+	/**
+	 * A binary trie, where node 0 is the root. Since the root is never a child, 0 also means no child
+	 */
+	private static class Trie
+	{
+		private int[] zeroChildren = new int[1];
+		private int[] oneChildren = new int[1];
+		private byte[] actions = new byte[1];
+		private int size = 1;
+
+		private void insert(byte[] address, int prefixLength, byte action)
+		{
+			int node = 0;
+			for (int i = 0; i < prefixLength; i++)
+			{
+				boolean bit = bitAt(address, i);
+				int child = (bit ? this.oneChildren : this.zeroChildren)[node];
+				if (child == 0)
+				{
+					child = this.newNode();
+					// read the array field after creating the node, since it might have been grown
+					(bit ? this.oneChildren : this.zeroChildren)[node] = child;
+				}
+				node = child;
+			}
+			this.actions[node] = (byte)Math.max(this.actions[node], action);  // deny wins over allow for the same prefix
+		}
+
+		private int newNode()
+		{
+			if (this.size == this.actions.length)
+			{
+				int capacity = this.size * 2;
+				this.zeroChildren = Arrays.copyOf(this.zeroChildren, capacity);
+				this.oneChildren = Arrays.copyOf(this.oneChildren, capacity);
+				this.actions = Arrays.copyOf(this.actions, capacity);
+			}
+			return this.size++;
+		}
+
+		private void trim()
+		{
+			this.zeroChildren = Arrays.copyOf(this.zeroChildren, this.size);
+			this.oneChildren = Arrays.copyOf(this.oneChildren, this.size);
+			this.actions = Arrays.copyOf(this.actions, this.size);
+		}
+
+		/**
+		 * @return the action of the longest matching prefix
+		 */
+		private byte lookup(byte[] address)
+		{
+			byte result = this.actions[0];
+			int node = 0;
+			for (int i = 0; i < address.length * 8; i++)
+			{
+				node = (bitAt(address, i) ? this.oneChildren : this.zeroChildren)[node];
+				if (node == 0)
+				{
+					break;
+				}
+				if (this.actions[node] != NONE)
+				{
+					result = this.actions[node];
+				}
+			}
+			return result;
+		}
+
+		private static boolean bitAt(byte[] address, int index)
+		{
+			return (address[index >>> 3] & (0x80 >>> (index & 7))) != 0;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.config;
+
+import com.google.common.collect.Lists;
+import io.netty.channel.WriteBufferWaterMark;
+import me.fallenbreath.distributary.network.handler.HandshakeRewriter;
+import me.fallenbreath.distributary.network.sniffer.Handshake;
+import me.fallenbreath.distributary.network.upstream.Backend;
+import me.fallenbreath.distributary.network.upstream.LoadBalancer;
+import me.fallenbreath.distributary.network.upstream.StatusCache;
+import me.fallenbreath.distributary.network.upstream.WeightedBackend;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link Route} with everything that can be computed at config load time computed
+ */
+public final class CompiledRoute
+{
+	/**
+	 * Position of the route in the config route list. Smaller index wins if multiple routes match
+	 */
+	public final int index;
+	public final Route route;
+	@Nullable public final SocketProfile socketProfile;
+	public final WriteBufferWaterMark writeBufferWaterMark;
+	@Nullable public final StatusCache statusCache;
+	@Nullable public final HandshakeRewriter handshakeRewriter;
+	@Nullable public final CidrFilter ipFilter;
+	private final WeightedBackend[] backends;
+	private final LoadBalancer balancer;
+	@Nullable private final Handshake.Intent intent;
+	private final int minProtocolVersion;
+	private final int maxProtocolVersion;
+
+	public CompiledRoute(int index, Route route, @Nullable SocketProfile socketProfile)
+	{
+		this.index = index;
+		this.route = route;
+		this.socketProfile = socketProfile;
+		this.writeBufferWaterMark = new WriteBufferWaterMark(route.write_buffer_low_water_mark, route.write_buffer_high_water_mark);
+		this.backends = route.allTargets().stream().
+				map(target -> new WeightedBackend(Backend.of(target.address), target.weight)).
+				toArray(WeightedBackend[]::new);
+		this.balancer = LoadBalancer.create(route.load_balance);
+		this.intent = route.intent != null ? Handshake.Intent.fromName(route.intent) : null;
+		this.minProtocolVersion = route.min_protocol_version != null ? route.min_protocol_version : Integer.MIN_VALUE;
+		this.maxProtocolVersion = route.max_protocol_version != null ? route.max_protocol_version : Integer.MAX_VALUE;
+		this.statusCache = route.status_cache_ttl_ms > 0 ? new StatusCache(route.status_cache_ttl_ms, route.status_cache_max_stale_ms, route.haproxy_protocol ? route.haproxy_protocol_version : 0, this::selectBackend) : null;
+		this.handshakeRewriter = route.mimic != null ? new HandshakeRewriter(Address.of(route.mimic)) : null;
+		this.ipFilter = CidrFilter.compile(route.ip_allow, route.ip_deny);
+	}
+
+	/**
+	 * If the handshake filters of the route allow the given handshake. Hostname and port are not checked here
+	 */
+	public boolean accepts(Handshake.Intent intent, int protocolVersion)
+	{
+		if (this.intent != null && this.intent != intent)
+		{
+			return false;
+		}
+		if (this.minProtocolVersion != Integer.MIN_VALUE || this.maxProtocolVersion != Integer.MAX_VALUE)
+		{
+			return protocolVersion != Handshake.UNKNOWN_PROTOCOL && this.minProtocolVersion <= protocolVersion && protocolVersion <= this.maxProtocolVersion;
+		}
+		return true;
+	}
+
+	/**
+	 * Selects from healthy backends. If none of them is healthy, selects from all backends, in case the health checks are wrong
+	 */
+	public Backend selectBackend()
+	{
+		WeightedBackend[] candidates = this.backends;
+		int healthyCount = 0;
+		for (WeightedBackend backend : this.backends)
+		{
+			if (backend.backend.isHealthy())
+			{
+				healthyCount++;
+			}
+		}
+		if (healthyCount > 0 && healthyCount < this.backends.length)
+		{
+			candidates = Arrays.stream(this.backends).filter(backend -> backend.backend.isHealthy()).toArray(WeightedBackend[]::new);
+		}
+		return this.balancer.select(candidates).backend;
+	}
+
+	/**
+	 * The backends to try for a new connection, in order: the one selected by the load balancer,
+	 * then the other healthy backends, then the unhealthy backends
+	 */
+	public List<Backend> getConnectCandidates()
+	{
+		Backend selected = this.selectBackend();
+		List<Backend> candidates = Lists.newArrayListWithCapacity(this.backends.length);
+		candidates.add(selected);
+		for (boolean healthy : new boolean[]{true, false})
+		{
+			for (WeightedBackend backend : this.backends)
+			{
+				if (backend.backend != selected && backend.backend.isHealthy() == healthy && !candidates.contains(backend.backend))
+				{
+					candidates.add(backend.backend);
+				}
+			}
+		}
+		return candidates;
+	}
+
+	public void collectBackends(Set<Backend> output)
+	{
+		for (WeightedBackend backend : this.backends)
+		{
+			output.add(backend.backend);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "#" + this.index + " " + this.route;
+	}
+}
@@ -21,11 +21,21 @@
 package me.fallenbreath.distributary.config;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import me.fallenbreath.distributary.DistributaryMod;
+import me.fallenbreath.distributary.network.ConnectionRateLimiter;
+import me.fallenbreath.distributary.network.dns.DnsClient;
+import me.fallenbreath.distributary.network.handler.HandshakeRewriter;
+import me.fallenbreath.distributary.network.sniffer.Handshake;
+import me.fallenbreath.distributary.network.upstream.Backend;
+import me.fallenbreath.distributary.network.upstream.LoadBalancer;
+import me.fallenbreath.distributary.network.upstream.WeightedBackend;
 import net.fabricmc.loader.api.FabricLoader;
 import org.apache.commons.io.IOUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,54 +43,122 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * An immutable snapshot of the config once published by {@link #load}
+ * <p>
+ * Readers should grab the snapshot once via {@link #get} and stick to it, e.g. a connection
+ * uses the snapshot at the time it's accepted for its whole lifetime, so it never sees a half-applied config
+ */
 public final class Config
 {
+	private static final AtomicInteger VERSION_COUNTER = new AtomicInteger();
 	@NotNull
-	private static Config INSTANCE = new Config();
-	public static boolean wasEnabledOnNetworkInit = false;
+	private static volatile Config INSTANCE = new Config();
 
 	public boolean enabled = false;
 	public boolean silent = false;
+	public boolean auto_reload = true;
 	public boolean haproxy_protocol = false;
 	public final List<Route> routes = Lists.newArrayList();
+	// from accepting a connection to receiving its handshake, so silent connections don't hold a slot for long
+	public int handshake_timeout_ms = 1000;
+	// of each connection attempt to a backend
+	public int connect_timeout_ms = 5000;
+	// of the whole connecting phase, including retries and failovers
+	public int connect_total_timeout_ms = 15000;
+	// a forwarded connection is closed if no byte goes through in either direction for this long, 0 means never. Not applied to spliced routes
+	public int idle_timeout_ms = 60000;
+	// retries on the same backend before failing over to the next one
+	public int connect_retries = 1;
+	public int connect_retry_delay_ms = 100;
+	public HealthCheck health_check = new HealthCheck();
+	public RateLimit rate_limit = new RateLimit();
+	// IP prefixes in CIDR notation, checked against every client before sniffing. Routes have their own lists too
+	public List<String> ip_allow = Lists.newArrayList();
+	public List<String> ip_deny = Lists.newArrayList();
+	// DNS servers for resolving backend hostnames, e.g. "1.1.1.1" or "127.0.0.1:5353". Empty means the ones in /etc/resolv.conf
+	public List<String> dns_servers = Lists.newArrayList();
+	// named socket option profiles, referenced by the socket_profile of routes
+	public Map<String, SocketProfile> socket_profiles = Maps.newHashMap();
+
+	private transient int version = 0;
+	private transient RouteTable routeTable = RouteTable.EMPTY;
+	@Nullable private transient ConnectionRateLimiter rateLimiter = null;
+	@Nullable private transient CidrFilter ipFilter = null;
 
-	public static void load()
+	/**
+	 * Loads the config file and publishes it as the new snapshot.
+	 * If anything goes wrong, the current snapshot stays in use
+	 */
+	public static synchronized void load()
 	{
 		try
 		{
-			doLoad();
-			validate();
+			Config config = doLoad();
+			if (config != null)
+			{
+				config.validate();
+				config.routeTable = RouteTable.compile(config.routes, config.socket_profiles);
+				config.rateLimiter = config.rate_limit.enabled ? new ConnectionRateLimiter(config.rate_limit) : null;
+				config.ipFilter = CidrFilter.compile(config.ip_allow, config.ip_deny);
+				config.version = VERSION_COUNTER.incrementAndGet();
+				INSTANCE = config;
+
+				Set<Backend> backends = Sets.newHashSet();
+				config.routeTable.getRoutes().forEach(route -> route.collectBackends(backends));
+				Backend.retireUnreferenced(backends);
+			}
 		}
 		catch (Exception e)
 		{
-			DistributaryMod.LOGGER.error("Failed to load config, distributary will be disabled", e);
+			DistributaryMod.LOGGER.error("Failed to load config, keep using the current config (enabled: {})", get().enabled, e);
 		}
-		if (Config.shouldLog())
+		Config config = get();
+		if (config.isLoggingEnabled())
 		{
 			DistributaryMod.LOGGER.info("Notes: logging is enabled");
-			DistributaryMod.LOGGER.info("Enabled: {}, Route counts: {}", get().enabled, get().routes.size());
-			for (Route route : get().routes)
+			DistributaryMod.LOGGER.info("Config version: {}, Enabled: {}, Route counts: {}", config.version, config.enabled, config.routes.size());
+			for (Route route : config.routes)
 			{
 				DistributaryMod.LOGGER.info("- {}", route);
 			}
-			if (get().enabled && !wasEnabledOnNetworkInit)
+			config.socket_profiles.forEach((name, profile) -> DistributaryMod.LOGGER.info("Socket profile {}: {}", name, profile));
+			if (config.rateLimiter != null)
 			{
-				DistributaryMod.LOGGER.warn("You need to restart the server to enable distributary, since you enable distributary too late");
+				DistributaryMod.LOGGER.info("Connection rate limit: {}", config.rate_limit);
+			}
+			if (config.ipFilter != null)
+			{
+				DistributaryMod.LOGGER.info("Listener IP filter: {}", config.ipFilter);
 			}
 		}
 	}
 
-	private static void doLoad() throws IOException
+	public static Path getConfigDir()
 	{
-		Path configDir = FabricLoader.getInstance().getConfigDir().resolve(DistributaryMod.MOD_ID);
+		return FabricLoader.getInstance().getConfigDir().resolve(DistributaryMod.MOD_ID);
+	}
+
+	public static Path getConfigFile()
+	{
+		return getConfigDir().resolve("config.json");
+	}
+
+	@Nullable
+	private static Config doLoad() throws IOException
+	{
+		Path configDir = getConfigDir();
 		if (!configDir.toFile().isDirectory() && !configDir.toFile().mkdirs())
 		{
-			return;
+			return null;
 		}
 
-		Path configFile = configDir.resolve("config.json");
+		Path configFile = getConfigFile();
 		if (!configFile.toFile().isFile())
 		{
 			DistributaryMod.LOGGER.info("config file not found, generating default config");
@@ -92,12 +170,34 @@ public final class Config
 		}
 
 		String configContent = new String(Files.readAllBytes(configFile), StandardCharsets.UTF_8);
-		INSTANCE = Objects.requireNonNull(new Gson().fromJson(configContent, Config.class));
+		return Objects.requireNonNull(new Gson().fromJson(configContent, Config.class));
 	}
 
-	private static void validate()
+	private void validate()
 	{
-		for (Route route : get().routes)
+		if (this.connect_timeout_ms <= 0 || this.connect_retries < 0 || this.connect_retry_delay_ms < 0)
+		{
+			throw new IllegalArgumentException("bad connect_timeout_ms / connect_retries / connect_retry_delay_ms");
+		}
+		if (this.handshake_timeout_ms <= 0 || this.connect_total_timeout_ms <= 0 || this.idle_timeout_ms < 0)
+		{
+			throw new IllegalArgumentException("bad handshake_timeout_ms / connect_total_timeout_ms / idle_timeout_ms");
+		}
+		Objects.requireNonNull(this.dns_servers, "dns_servers missing").forEach(DnsClient::parseServer);
+		Objects.requireNonNull(this.health_check, "health_check missing");
+		if (this.health_check.interval_ms <= 0 || this.health_check.timeout_ms <= 0 || this.health_check.rise <= 0 || this.health_check.fall <= 0)
+		{
+			throw new IllegalArgumentException("values in health_check should be positive");
+		}
+		Objects.requireNonNull(this.rate_limit, "rate_limit missing");
+		if (!(this.rate_limit.connections_per_second > 0) || this.rate_limit.burst < 1 || this.rate_limit.max_tracked_ips <= 0)
+		{
+			throw new IllegalArgumentException("bad rate_limit, connections_per_second and max_tracked_ips should be positive, and burst should be at least 1");
+		}
+		Objects.requireNonNull(this.ip_allow, "ip_allow missing");
+		Objects.requireNonNull(this.ip_deny, "ip_deny missing");
+		Objects.requireNonNull(this.socket_profiles, "socket_profiles missing").forEach((name, profile) -> Objects.requireNonNull(profile, "socket profile missing").validate(name));
+		for (Route route : this.routes)
 		{
 			List<String> allMatches = route.allMatches();
 			if (allMatches.isEmpty())
@@ -106,13 +206,62 @@ public final class Config
 			}
 			for (String match : allMatches)
 			{
-				Address.of(Objects.requireNonNull(match, "match missing"));
+				Address address = Address.of(Objects.requireNonNull(match, "match missing"));
+				RouteTable.validateMatchHostname(RouteTable.normalizeHostname(address.hostname));
 			}
 
-			Address.of(Objects.requireNonNull(route.target, "target missing"));
-			if (route.mimic != null)
+			List<Route.Target> allTargets = route.allTargets();
+			if (allTargets.isEmpty())
+			{
+				throw new RuntimeException("target and targets missing");
+			}
+			long totalWeight = 0;
+			for (Route.Target target : allTargets)
+			{
+				Address.of(Objects.requireNonNull(target.address, "target address missing"));
+				if (target.weight <= 0 || target.weight > WeightedBackend.MAX_WEIGHT)
+				{
+					throw new IllegalArgumentException(String.format("bad weight %d for target %s, should be in [1, %d]", target.weight, target.address, WeightedBackend.MAX_WEIGHT));
+				}
+				totalWeight += target.weight;
+			}
+			if (totalWeight > Integer.MAX_VALUE)
+			{
+				throw new IllegalArgumentException(String.format("total weight %d of the targets is too large", totalWeight));
+			}
+			LoadBalancer.create(Objects.requireNonNull(route.load_balance, "load_balance missing"));
+			RouteType type = RouteType.fromName(route.type);
+			if (type != null && type != RouteType.MINECRAFT)
+			{
+				validateNonMinecraftRoute(route, type);
+			}
+			if (route.mimic != null && Address.of(route.mimic).hostname.length() > HandshakeRewriter.MAX_HOSTNAME_LENGTH)
+			{
+				throw new IllegalArgumentException(String.format("mimic hostname of %s is too long", route.mimic));
+			}
+			if (route.intent != null && Handshake.Intent.fromName(route.intent) == null)
+			{
+				throw new IllegalArgumentException(String.format("bad intent %s, should be one of status, login, transfer", route.intent));
+			}
+			if (route.min_protocol_version != null && route.max_protocol_version != null && route.min_protocol_version > route.max_protocol_version)
+			{
+				throw new IllegalArgumentException(String.format("min_protocol_version %d is greater than max_protocol_version %d", route.min_protocol_version, route.max_protocol_version));
+			}
+			if (route.status_cache_ttl_ms < 0 || route.status_cache_max_stale_ms < 0)
+			{
+				throw new IllegalArgumentException(String.format("bad status_cache_ttl_ms %d / status_cache_max_stale_ms %d", route.status_cache_ttl_ms, route.status_cache_max_stale_ms));
+			}
+			if (route.pool_size < 0 || route.pool_idle_timeout_ms <= 0)
+			{
+				throw new IllegalArgumentException(String.format("bad pool_size %d / pool_idle_timeout_ms %d", route.pool_size, route.pool_idle_timeout_ms));
+			}
+			if (route.write_buffer_low_water_mark <= 0 || route.write_buffer_low_water_mark > route.write_buffer_high_water_mark)
+			{
+				throw new IllegalArgumentException(String.format("bad write_buffer_low_water_mark %d / write_buffer_high_water_mark %d, should be 0 < low <= high", route.write_buffer_low_water_mark, route.write_buffer_high_water_mark));
+			}
+			if (route.socket_profile != null && !this.socket_profiles.containsKey(route.socket_profile))
 			{
-				Address.of(route.mimic);
+				throw new IllegalArgumentException(String.format("unknown socket_profile %s", route.socket_profile));
 			}
 			int hpv = route.haproxy_protocol_version;
 			if (hpv != 1 && hpv != 2)
@@ -122,13 +271,111 @@ public final class Config
 		}
 	}
 
+	/**
+	 * Handshake filters, mimic and status caching are for Minecraft handshakes only, and there are no SRV records to look up the target ports with
+	 */
+	private static void validateNonMinecraftRoute(Route route, RouteType type)
+	{
+		if (route.mimic != null || route.intent != null || route.min_protocol_version != null || route.max_protocol_version != null || route.status_cache_ttl_ms != 0)
+		{
+			throw new IllegalArgumentException(String.format("mimic, intent, min_protocol_version, max_protocol_version and status_cache_ttl_ms are not supported by %s routes", route.type));
+		}
+		for (Route.Target target : route.allTargets())
+		{
+			if (Address.of(target.address).port == null)
+			{
+				throw new IllegalArgumentException(String.format("target %s of %s route should have a port", target.address, route.type));
+			}
+		}
+		if (type == RouteType.TLS)
+		{
+			for (String match : route.allMatches())
+			{
+				if (Address.of(match).port != null)
+				{
+					throw new IllegalArgumentException(String.format("match %s of tls route should not have a port, since SNI carries no port", match));
+				}
+			}
+		}
+	}
+
 	public static Config get()
 	{
 		return Objects.requireNonNull(INSTANCE);
 	}
 
+	public int getVersion()
+	{
+		return this.version;
+	}
+
+	public RouteTable getRouteTable()
+	{
+		return this.routeTable;
+	}
+
+	/**
+	 * @return null if there's no listener level IP filter
+	 */
+	@Nullable
+	public CidrFilter getIpFilter()
+	{
+		return this.ipFilter;
+	}
+
+	/**
+	 * @return null if rate limiting is disabled
+	 */
+	@Nullable
+	public ConnectionRateLimiter getRateLimiter()
+	{
+		return this.rateLimiter;
+	}
+
+	public boolean isLoggingEnabled()
+	{
+		return !this.silent;
+	}
+
 	public static boolean shouldLog()
 	{
-		return !get().silent;
+		return get().isLoggingEnabled();
+	}
+
+	public static final class HealthCheck
+	{
+		public boolean enabled = false;
+		public int interval_ms = 5000;
+		public int timeout_ms = 3000;
+		// consecutive successes to mark a backend up
+		public int rise = 2;
+		// consecutive failures to mark a backend down
+		public int fall = 3;
+
+		@Override
+		public String toString()
+		{
+			return String.format("interval=%dms, timeout=%dms, rise=%d, fall=%d", this.interval_ms, this.timeout_ms, this.rise, this.fall);
+		}
+	}
+
+	/**
+	 * A token bucket per client IP, checked when a connection is accepted
+	 */
+	public static final class RateLimit
+	{
+		public boolean enabled = false;
+		// refill rate of the bucket
+		public double connections_per_second = 2.0;
+		// bucket size, i.e. connections an IP can make at once after being quiet for a while
+		public int burst = 10;
+		// least recently seen IPs are forgotten beyond this, which is the same as having a full bucket
+		public int max_tracked_ips = 65536;
+
+		@Override
+		public String toString()
+		{
+			return String.format("%s/s, burst=%d, max_tracked_ips=%d", this.connections_per_second, this.burst, this.max_tracked_ips);
+		}
 	}
 }
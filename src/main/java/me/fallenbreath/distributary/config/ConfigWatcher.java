@@ -0,0 +1,107 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.config;
+
+import me.fallenbreath.distributary.DistributaryMod;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the config when the config file changes, so routes can be updated without a /reload
+ * <p>
+ * Runs in its own daemon thread, never touching the server thread
+ */
+public class ConfigWatcher extends Thread
+{
+	// editors tend to save a file with multiple writes, wait for things to calm down before reloading
+	private static final long DEBOUNCE_MS = 500;
+
+	private final WatchService watchService;
+
+	private ConfigWatcher(WatchService watchService)
+	{
+		super("Distributary Config Watcher");
+		this.setDaemon(true);
+		this.watchService = watchService;
+	}
+
+	public static void startWatching()
+	{
+		try
+		{
+			WatchService watchService = FileSystems.getDefault().newWatchService();
+			Config.getConfigDir().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			new ConfigWatcher(watchService).start();
+		}
+		catch (IOException e)
+		{
+			DistributaryMod.LOGGER.warn("Failed to start the config file watcher, config auto reload is unavailable", e);
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		Path fileName = Config.getConfigFile().getFileName();
+		try
+		{
+			//noinspection InfiniteLoopStatement
+			while (true)
+			{
+				if (!this.pollChanged(this.watchService.take(), fileName))
+				{
+					continue;
+				}
+
+				WatchKey key;
+				while ((key = this.watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null)
+				{
+					this.pollChanged(key, fileName);
+				}
+
+				if (Config.get().auto_reload)
+				{
+					if (Config.shouldLog()) DistributaryMod.LOGGER.info("Config file changed, reloading");
+					Config.load();
+				}
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException ignored)
+		{
+		}
+	}
+
+	private boolean pollChanged(WatchKey key, Path fileName)
+	{
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (fileName.equals(event.context()))
+			{
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+}
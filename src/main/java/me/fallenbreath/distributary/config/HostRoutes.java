@@ -0,0 +1,96 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.config;
+
+import me.fallenbreath.distributary.network.sniffer.Handshake;
+import org.apache.commons.lang3.ArrayUtils;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Routes sharing the same match hostname, indexed by the match port
+ */
+class HostRoutes
+{
+	private static final CompiledRoute[] NO_ROUTES = new CompiledRoute[0];
+
+	// hosts have only a few distinct ports, so plain arrays beat a map with boxed keys here
+	// routes are added in index order, so every route array is sorted by index
+	private int[] ports = new int[0];
+	private CompiledRoute[][] portRoutes = new CompiledRoute[0][];
+	private CompiledRoute[] anyPortRoutes = NO_ROUTES;
+
+	void add(@Nullable Integer port, CompiledRoute route)
+	{
+		if (port == null)
+		{
+			this.anyPortRoutes = ArrayUtils.add(this.anyPortRoutes, route);
+			return;
+		}
+		int i = ArrayUtils.indexOf(this.ports, port);
+		if (i == ArrayUtils.INDEX_NOT_FOUND)
+		{
+			this.ports = ArrayUtils.add(this.ports, port);
+			this.portRoutes = ArrayUtils.add(this.portRoutes, new CompiledRoute[]{route});
+		}
+		else
+		{
+			this.portRoutes[i] = ArrayUtils.add(this.portRoutes[i], route);
+		}
+	}
+
+	/**
+	 * @return the first route, in config order, that matches the given port and accepts the handshake
+	 */
+	@Nullable
+	CompiledRoute get(int port, Handshake.Intent intent, int protocolVersion)
+	{
+		CompiledRoute[] portRoutes = NO_ROUTES;
+		for (int i = 0; i < this.ports.length; i++)
+		{
+			if (this.ports[i] == port)
+			{
+				portRoutes = this.portRoutes[i];
+				break;
+			}
+		}
+
+		// merge the 2 sorted arrays
+		CompiledRoute[] anyPortRoutes = this.anyPortRoutes;
+		int i = 0, j = 0;
+		while (i < portRoutes.length || j < anyPortRoutes.length)
+		{
+			CompiledRoute route;
+			if (j >= anyPortRoutes.length || (i < portRoutes.length && portRoutes[i].index < anyPortRoutes[j].index))
+			{
+				route = portRoutes[i++];
+			}
+			else
+			{
+				route = anyPortRoutes[j++];
+			}
+			if (route.accepts(intent, protocolVersion))
+			{
+				return route;
+			}
+		}
+		return null;
+	}
+}
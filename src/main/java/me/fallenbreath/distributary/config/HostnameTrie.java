@@ -0,0 +1,187 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.config;
+
+import me.fallenbreath.distributary.network.sniffer.Handshake;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A trie of wildcard hostname suffixes, keyed by labels in reversed order
+ * <p>
+ * e.g. {@code *.play.example.com} is stored at path {@code com -> example -> play},
+ * so a lookup walks the labels of the hostname from right to left, and costs O(labels) regardless of the route count.
+ * Labels are compared in place within the hostname, so a lookup allocates nothing
+ */
+class HostnameTrie
+{
+	private final Node root = new Node();
+
+	/**
+	 * @param suffix the part after "*.", e.g. "play.example.com" for "*.play.example.com"
+	 */
+	HostRoutes getOrCreate(String suffix)
+	{
+		Node node = this.root;
+		int end = suffix.length();
+		while (end > 0)
+		{
+			int start = suffix.lastIndexOf('.', end - 1) + 1;
+			node = node.getOrCreateChild(suffix.substring(start, end));
+			end = start - 1;
+		}
+		if (node.routes == null)
+		{
+			node.routes = new HostRoutes();
+		}
+		return node.routes;
+	}
+
+	boolean isEmpty()
+	{
+		return this.root.size == 0;
+	}
+
+	/**
+	 * Finds the route of the longest wildcard suffix that matches the given hostname, port and handshake
+	 * <p>
+	 * A wildcard only matches hostnames with at least one extra label, i.e. {@code *.example.com}
+	 * matches {@code a.example.com} and {@code a.b.example.com}, but not {@code example.com}
+	 *
+	 * @param hostname a normalized hostname
+	 */
+	@Nullable
+	CompiledRoute lookup(String hostname, int port, Handshake.Intent intent, int protocolVersion)
+	{
+		CompiledRoute result = null;
+		Node node = this.root;
+		int end = hostname.length();
+		while (end > 0)
+		{
+			int start = hostname.lastIndexOf('.', end - 1) + 1;
+			if (start == 0)
+			{
+				// the leftmost label is what the wildcard is for, it cannot be a part of the suffix
+				break;
+			}
+			node = node.getChild(hostname, start, end);
+			if (node == null)
+			{
+				break;
+			}
+			if (node.routes != null)
+			{
+				CompiledRoute route = node.routes.get(port, intent, protocolVersion);
+				if (route != null)
+				{
+					result = route;
+				}
+			}
+			end = start - 1;
+		}
+		return result;
+	}
+
+	/**
+	 * The children are in an open addressing hash table keyed by label, which can be probed with a region of the hostname
+	 */
+	private static class Node
+	{
+		private static final String[] NO_LABELS = new String[0];
+		private static final Node[] NO_NODES = new Node[0];
+
+		// capacity is 0 or a power of 2, and at most half full
+		private String[] labels = NO_LABELS;
+		private Node[] children = NO_NODES;
+		private int size = 0;
+		@Nullable private HostRoutes routes = null;
+
+		/**
+		 * @return the child of label {@code hostname[start, end)}
+		 */
+		@Nullable
+		private Node getChild(String hostname, int start, int end)
+		{
+			if (this.size == 0)
+			{
+				return null;
+			}
+			int length = end - start;
+			int mask = this.labels.length - 1;
+			for (int i = hash(hostname, start, end) & mask; this.labels[i] != null; i = (i + 1) & mask)
+			{
+				String label = this.labels[i];
+				if (label.length() == length && label.regionMatches(0, hostname, start, length))
+				{
+					return this.children[i];
+				}
+			}
+			return null;
+		}
+
+		private Node getOrCreateChild(String label)
+		{
+			Node child = this.getChild(label, 0, label.length());
+			if (child == null)
+			{
+				if ((this.size + 1) * 2 > this.labels.length)
+				{
+					String[] oldLabels = this.labels;
+					Node[] oldChildren = this.children;
+					this.labels = new String[Math.max(4, oldLabels.length * 2)];
+					this.children = new Node[this.labels.length];
+					for (int i = 0; i < oldLabels.length; i++)
+					{
+						if (oldLabels[i] != null)
+						{
+							this.put(oldLabels[i], oldChildren[i]);
+						}
+					}
+				}
+				child = new Node();
+				this.put(label, child);
+				this.size++;
+			}
+			return child;
+		}
+
+		private void put(String label, Node child)
+		{
+			int mask = this.labels.length - 1;
+			int i = hash(label, 0, label.length()) & mask;
+			while (this.labels[i] != null)
+			{
+				i = (i + 1) & mask;
+			}
+			this.labels[i] = label;
+			this.children[i] = child;
+		}
+
+		private static int hash(String s, int start, int end)
+		{
+			int h = 0;
+			for (int i = start; i < end; i++)
+			{
+				h = 31 * h + s.charAt(i);
+			}
+			return h ^ (h >>> 16);
+		}
+	}
+}
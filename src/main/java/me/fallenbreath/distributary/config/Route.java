@@ -29,12 +29,43 @@ import java.util.List;
 
 public final class Route
 {
+	// name of a RouteType, e.g. "minecraft"
 	public String type;
 	public String match;
 	public List<String> matches;
 	public String target;
+	@Nullable public List<Target> targets;
+	public String load_balance = "round_robin";
 	@Nullable public String mimic;
 
+	// handshake filters, null means no restriction
+	@Nullable public String intent;
+	@Nullable public Integer min_protocol_version;
+	@Nullable public Integer max_protocol_version;
+
+	// pre-established idle connections to each target, 0 means no pooling
+	public int pool_size = 0;
+	// should be less than the read timeout of the backend, which is 30s for vanilla
+	public int pool_idle_timeout_ms = 15000;
+
+	// answer server list pings from a cache of the backend's status response, refreshed in the background once it's older than this. 0 means no caching
+	public int status_cache_ttl_ms = 0;
+	// after failed refreshes, keep serving the cached status until it's older than this. 0 means dropping it at the first failed refresh
+	public int status_cache_max_stale_ms = 60000;
+
+	// forward with splice(2) when both channels are on the epoll transport, falls back to normal forwarding otherwise.
+	// Spliced connections have no idle timeout, use a socket profile with keepalive to reclaim dead ones
+	public boolean splice = false;
+	// outbound buffer size of a forwarding channel, in bytes. Reading from the other side pauses above the high mark until it drains below the low mark
+	public int write_buffer_low_water_mark = 32 * 1024;
+	public int write_buffer_high_water_mark = 64 * 1024;
+	// name of the profile in socket_profiles, applied to both the client and the target channel
+	@Nullable public String socket_profile;
+
+	// IP prefixes in CIDR notation, checked against the client before connecting to the target
+	@Nullable public List<String> ip_allow;
+	@Nullable public List<String> ip_deny;
+
 	public boolean haproxy_protocol = false;
 	public int haproxy_protocol_version = 2;
 
@@ -52,7 +83,20 @@ public final class Route
 		return allMatches;
 	}
 
-	@SuppressWarnings("SwitchStatementWithTooFewBranches")
+	public List<Target> allTargets()
+	{
+		List<Target> allTargets = Lists.newArrayList();
+		if (!Strings.isEmpty(this.target))
+		{
+			allTargets.add(new Target(this.target, 1));
+		}
+		if (this.targets != null)
+		{
+			allTargets.addAll(this.targets);
+		}
+		return allTargets;
+	}
+
 	@Override
 	public String toString()
 	{
@@ -61,12 +105,50 @@ public final class Route
 		switch (this.type)
 		{
 			case "minecraft":
-
-				sb.append(Joiner.on('|').join(this.allMatches())).append(" -> ").append(this.target);
+			case "tls":
+			case "http":
+				sb.append(Joiner.on('|').join(this.allMatches())).append(" -> ").append(Joiner.on('|').join(this.allTargets()));
+				if (this.allTargets().size() > 1)
+				{
+					sb.append(" [lb=").append(this.load_balance).append("]");
+				}
 				if (!Strings.isEmpty(this.mimic))
 				{
 					sb.append(" [mimic=").append(this.mimic).append("]");
 				}
+				if (!Strings.isEmpty(this.intent))
+				{
+					sb.append(" [intent=").append(this.intent).append("]");
+				}
+				if (this.min_protocol_version != null || this.max_protocol_version != null)
+				{
+					sb.append(" [protocol=").append(this.min_protocol_version != null ? this.min_protocol_version : "").
+							append("..").append(this.max_protocol_version != null ? this.max_protocol_version : "").append("]");
+				}
+				if (this.status_cache_ttl_ms > 0)
+				{
+					sb.append(" [status_cache=").append(this.status_cache_ttl_ms).append("ms, max_stale=").append(this.status_cache_max_stale_ms).append("ms]");
+				}
+				if (this.pool_size > 0)
+				{
+					sb.append(" [pool=").append(this.pool_size).append("]");
+				}
+				if (this.splice)
+				{
+					sb.append(" [splice]");
+				}
+				if (!Strings.isEmpty(this.socket_profile))
+				{
+					sb.append(" [socket=").append(this.socket_profile).append("]");
+				}
+				if (this.ip_allow != null && !this.ip_allow.isEmpty())
+				{
+					sb.append(" [ip_allow=").append(this.ip_allow.size()).append("]");
+				}
+				if (this.ip_deny != null && !this.ip_deny.isEmpty())
+				{
+					sb.append(" [ip_deny=").append(this.ip_deny.size()).append("]");
+				}
 				break;
 			default:
 				sb.append("<unknown>");
@@ -78,4 +160,28 @@ public final class Route
 		}
 		return sb.toString();
 	}
+
+	public static final class Target
+	{
+		public String address;
+		// at most WeightedBackend.MAX_WEIGHT
+		public int weight = 1;
+
+		@SuppressWarnings("unused")  // for gson
+		public Target()
+		{
+		}
+
+		public Target(String address, int weight)
+		{
+			this.address = address;
+			this.weight = weight;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.weight != 1 ? this.address + "*" + this.weight : this.address;
+		}
+	}
 }
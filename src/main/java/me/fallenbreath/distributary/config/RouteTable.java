@@ -0,0 +1,207 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.config;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import me.fallenbreath.distributary.network.sniffer.Handshake;
+import me.fallenbreath.distributary.network.upstream.Backend;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable hostname -> route index, compiled from the route list once at config load,
+ * so routing a handshake is a hash lookup instead of a scan over all routes
+ * <p>
+ * Exact hostname matches take precedence over wildcard matches like {@code *.example.com},
+ * and among wildcard matches the longest suffix wins.
+ * Within the same hostname, the first route in config order whose handshake filters (intent, protocol version) pass wins
+ * <p>
+ * Each {@link RouteType} has its own index, e.g. a TLS connection never matches a Minecraft route of the same hostname
+ */
+public final class RouteTable
+{
+	private static final String WILDCARD_PREFIX = "*.";
+	public static final RouteTable EMPTY = new RouteTable(Collections.emptyList(), new EnumMap<>(RouteType.class), Collections.emptySet(), Collections.emptyMap());
+
+	private final List<CompiledRoute> routes;
+	private final Map<RouteType, HostIndex> indexes;
+	private final Set<Backend> minecraftBackends;
+	private final Map<Backend, Integer> proxyProtocolVersions;
+	private final boolean needsReconfigurableReads;
+
+	private RouteTable(List<CompiledRoute> routes, Map<RouteType, HostIndex> indexes, Set<Backend> minecraftBackends, Map<Backend, Integer> proxyProtocolVersions)
+	{
+		this.routes = routes;
+		this.indexes = indexes;
+		this.minecraftBackends = minecraftBackends;
+		this.proxyProtocolVersions = proxyProtocolVersions;
+		this.needsReconfigurableReads = routes.stream().anyMatch(route -> route.route.splice || (route.socketProfile != null && route.socketProfile.hasReadBufferSizes()));
+	}
+
+	public static RouteTable compile(List<Route> routes, Map<String, SocketProfile> socketProfiles)
+	{
+		List<CompiledRoute> compiledRoutes = Lists.newArrayList();
+		Map<RouteType, HostIndex> indexes = new EnumMap<>(RouteType.class);
+		Set<Backend> minecraftBackends = Sets.newLinkedHashSet();
+		Map<Backend, Integer> proxyProtocolVersions = Maps.newHashMap();
+		for (int i = 0; i < routes.size(); i++)
+		{
+			Route route = routes.get(i);
+			RouteType type = RouteType.fromName(route.type);
+			if (type == null)
+			{
+				continue;
+			}
+
+			CompiledRoute compiledRoute = new CompiledRoute(i, route, route.socket_profile != null ? socketProfiles.get(route.socket_profile) : null);
+			compiledRoutes.add(compiledRoute);
+			if (type == RouteType.MINECRAFT)
+			{
+				compiledRoute.collectBackends(minecraftBackends);
+				if (route.haproxy_protocol)
+				{
+					Set<Backend> backends = Sets.newHashSet();
+					compiledRoute.collectBackends(backends);
+					backends.forEach(backend -> proxyProtocolVersions.putIfAbsent(backend, route.haproxy_protocol_version));
+				}
+			}
+			HostIndex index = indexes.computeIfAbsent(type, k -> new HostIndex());
+			for (String matchStr : route.allMatches())
+			{
+				Address match = Address.of(matchStr);
+				String hostname = normalizeHostname(match.hostname);
+				HostRoutes hostRoutes = isWildcard(hostname) ?
+						index.wildcards.getOrCreate(hostname.substring(WILDCARD_PREFIX.length())) :
+						index.hosts.computeIfAbsent(hostname, k -> new HostRoutes());
+				hostRoutes.add(match.port, compiledRoute);
+			}
+		}
+		return indexes.isEmpty() ? EMPTY : new RouteTable(Collections.unmodifiableList(compiledRoutes), indexes, Collections.unmodifiableSet(minecraftBackends), proxyProtocolVersions);
+	}
+
+	private static boolean isWildcard(String hostname)
+	{
+		return hostname.startsWith(WILDCARD_PREFIX);
+	}
+
+	/**
+	 * A valid match hostname is either a plain hostname, or a wildcard like {@code *.example.com}
+	 */
+	public static void validateMatchHostname(String hostname)
+	{
+		String rest = isWildcard(hostname) ? hostname.substring(WILDCARD_PREFIX.length()) : hostname;
+		if (rest.isEmpty() || rest.contains("*") || rest.startsWith(".") || rest.contains(".."))
+		{
+			throw new IllegalArgumentException(String.format("bad match hostname \"%s\", wildcard should be in form \"*.example.com\"", hostname));
+		}
+	}
+
+	/**
+	 * Lowercase, and without the trailing dot of a FQDN
+	 * <p>
+	 * Returns the given string itself if it's already normalized, which is the common case
+	 */
+	public static String normalizeHostname(String hostname)
+	{
+		return StringUtils.removeEnd(hostname, ".").toLowerCase(Locale.ROOT);
+	}
+
+	public boolean isEmpty()
+	{
+		return this == EMPTY;
+	}
+
+	/**
+	 * All compiled routes, in config order
+	 */
+	public List<CompiledRoute> getRoutes()
+	{
+		return this.routes;
+	}
+
+	/**
+	 * All backends referenced by the Minecraft routes, i.e. the ones that answer server list pings
+	 */
+	public Set<Backend> getMinecraftBackends()
+	{
+		return this.minecraftBackends;
+	}
+
+	/**
+	 * @return the PROXY protocol version of the first Minecraft route with {@code haproxy_protocol} that references the backend,
+	 * or 0 if no such route exists, i.e. what the backend expects in front of a server list ping
+	 */
+	public int getProxyProtocolVersion(Backend backend)
+	{
+		return this.proxyProtocolVersions.getOrDefault(backend, 0);
+	}
+
+	public boolean hasRoutes(RouteType type)
+	{
+		return this.indexes.containsKey(type);
+	}
+
+	/**
+	 * Whether any route changes how the channels read once forwarding starts, i.e. splicing or read buffer sizes,
+	 * so client channels need a {@link me.fallenbreath.distributary.network.ReconfigurableRecvByteBufAllocator} before their first read
+	 */
+	public boolean needsReconfigurableReads()
+	{
+		return this.needsReconfigurableReads;
+	}
+
+	@Nullable
+	public CompiledRoute lookup(RouteType type, String hostname, int port, Handshake.Intent intent, int protocolVersion)
+	{
+		HostIndex index = this.indexes.get(type);
+		return index != null ? index.lookup(normalizeHostname(hostname), port, intent, protocolVersion) : null;
+	}
+
+	/**
+	 * Routes of a single {@link RouteType}
+	 */
+	private static class HostIndex
+	{
+		private final Map<String, HostRoutes> hosts = Maps.newHashMap();
+		private final HostnameTrie wildcards = new HostnameTrie();
+
+		@Nullable
+		private CompiledRoute lookup(String hostname, int port, Handshake.Intent intent, int protocolVersion)
+		{
+			HostRoutes hostRoutes = this.hosts.get(hostname);
+			CompiledRoute route = hostRoutes != null ? hostRoutes.get(port, intent, protocolVersion) : null;
+			if (route == null && !this.wildcards.isEmpty())
+			{
+				route = this.wildcards.lookup(hostname, port, intent, protocolVersion);
+			}
+			return route;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.config;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * What kind of connection a route handles, i.e. which sniffer extracts the hostname to match against
+ */
+public enum RouteType
+{
+	/**
+	 * Minecraft handshakes, matched with the server address the player connects with
+	 */
+	MINECRAFT,
+	/**
+	 * TLS connections, matched with the SNI in the ClientHello. The connection is not terminated, but forwarded as is
+	 */
+	TLS,
+	/**
+	 * Plaintext HTTP/1.x requests, matched with the Host header of the first request
+	 */
+	HTTP;
+
+	public String getName()
+	{
+		return this.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * For config values like "minecraft" or "tls"
+	 */
+	@Nullable
+	public static RouteType fromName(String name)
+	{
+		for (RouteType type : values())
+		{
+			if (type.getName().equals(name))
+			{
+				return type;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.config;
+
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Named socket options in {@link Config#socket_profiles}, applied to both the client and the target channel of a route
+ * that references it, e.g. different tunings for a LAN backend and a transcontinental one
+ * <p>
+ * Null means leaving the option as is. Options marked as epoll-only are ignored on other transports
+ */
+public final class SocketProfile
+{
+	// SO_SNDBUF and SO_RCVBUF, in bytes
+	@Nullable public Integer send_buffer_size;
+	@Nullable public Integer receive_buffer_size;
+
+	// sizes of the adaptive allocator for read buffers, in bytes. Should be set all together, netty uses 64, 1024, 65536 by default
+	@Nullable public Integer read_buffer_min;
+	@Nullable public Integer read_buffer_initial;
+	@Nullable public Integer read_buffer_max;
+
+	// SO_KEEPALIVE, and its timings TCP_KEEPIDLE, TCP_KEEPINTVL, TCP_KEEPCNT which are epoll-only
+	@Nullable public Boolean keepalive;
+	@Nullable public Integer keepalive_idle_s;
+	@Nullable public Integer keepalive_interval_s;
+	@Nullable public Integer keepalive_count;
+
+	// epoll-only. Fast open only affects new connections to backends, and needs net.ipv4.tcp_fastopen to allow it
+	@Nullable public Boolean tcp_fastopen_connect;
+	@Nullable public Boolean tcp_quickack;
+	@Nullable public Integer tcp_user_timeout_ms;
+
+	public boolean hasReadBufferSizes()
+	{
+		return this.read_buffer_min != null || this.read_buffer_initial != null || this.read_buffer_max != null;
+	}
+
+	void validate(String name)
+	{
+		for (Integer value : new Integer[]{this.send_buffer_size, this.receive_buffer_size, this.keepalive_idle_s, this.keepalive_interval_s, this.keepalive_count})
+		{
+			if (value != null && value <= 0)
+			{
+				throw new IllegalArgumentException(String.format("values in socket profile %s should be positive", name));
+			}
+		}
+		if (this.tcp_user_timeout_ms != null && this.tcp_user_timeout_ms < 0)
+		{
+			throw new IllegalArgumentException(String.format("bad tcp_user_timeout_ms %d in socket profile %s", this.tcp_user_timeout_ms, name));
+		}
+		if (this.hasReadBufferSizes())
+		{
+			if (this.read_buffer_min == null || this.read_buffer_initial == null || this.read_buffer_max == null ||
+					this.read_buffer_min <= 0 || this.read_buffer_min > this.read_buffer_initial || this.read_buffer_initial > this.read_buffer_max)
+			{
+				throw new IllegalArgumentException(String.format("bad read buffer sizes in socket profile %s, should be 0 < min <= initial <= max", name));
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		List<String> options = Lists.newArrayList();
+		if (this.send_buffer_size != null) options.add("sndbuf=" + this.send_buffer_size);
+		if (this.receive_buffer_size != null) options.add("rcvbuf=" + this.receive_buffer_size);
+		if (this.hasReadBufferSizes()) options.add("read_buffer=" + this.read_buffer_min + "/" + this.read_buffer_initial + "/" + this.read_buffer_max);
+		if (this.keepalive != null) options.add("keepalive=" + this.keepalive);
+		if (this.keepalive_idle_s != null) options.add("keepidle=" + this.keepalive_idle_s + "s");
+		if (this.keepalive_interval_s != null) options.add("keepintvl=" + this.keepalive_interval_s + "s");
+		if (this.keepalive_count != null) options.add("keepcnt=" + this.keepalive_count);
+		if (this.tcp_fastopen_connect != null) options.add("fastopen=" + this.tcp_fastopen_connect);
+		if (this.tcp_quickack != null) options.add("quickack=" + this.tcp_quickack);
+		if (this.tcp_user_timeout_ms != null) options.add("user_timeout=" + this.tcp_user_timeout_ms + "ms");
+		return String.join(", ", options);
+	}
+}
@@ -23,7 +23,6 @@ package me.fallenbreath.distributary.mixins;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
-import me.fallenbreath.distributary.config.Config;
 import me.fallenbreath.distributary.network.DistributaryChannelInitializer;
 import net.minecraft.server.network.ServerConnectionListener;
 import org.spongepowered.asm.mixin.Mixin;
@@ -44,12 +43,7 @@ public abstract class ServerNetworkIoMixin
 	)
 	private ChannelHandler distributaryHack(ChannelHandler childHandler)
 	{
-		boolean enabled = Config.get().enabled;
-		Config.wasEnabledOnNetworkInit = enabled;
-		if (enabled)
-		{
-			return new DistributaryChannelInitializer((ChannelInitializer<Channel>)childHandler);
-		}
-		return childHandler;
+		// always installed, so distributary can be toggled at runtime. It's a no-op passthrough when disabled
+		return new DistributaryChannelInitializer((ChannelInitializer<Channel>)childHandler);
 	}
 }
@@ -0,0 +1,118 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network;
+
+import me.fallenbreath.distributary.config.Config;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-IP token buckets for admitting new connections
+ * <p>
+ * The buckets are kept in a few independently locked LRU maps, picked by the address hash,
+ * so concurrent accepts on different event loops rarely contend, and the memory is bounded.
+ * An evicted IP comes back with a full bucket, which is the state any IP quiet for long enough would be in anyway
+ */
+public class ConnectionRateLimiter
+{
+	private static final int STRIPE_BITS = 6;
+	private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+
+	private final double tokensPerNano;
+	private final double burst;
+	private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+	public ConnectionRateLimiter(Config.RateLimit settings)
+	{
+		this.tokensPerNano = settings.connections_per_second / 1e9;
+		this.burst = settings.burst;
+		int stripeCapacity = Math.max(1, settings.max_tracked_ips / STRIPE_COUNT);
+		for (int i = 0; i < STRIPE_COUNT; i++)
+		{
+			this.stripes[i] = new Stripe(stripeCapacity);
+		}
+	}
+
+	/**
+	 * Takes a token from the bucket of the given address
+	 *
+	 * @return false if the address is connecting too fast, and the connection should be dropped
+	 */
+	public boolean tryAcquire(InetAddress address)
+	{
+		int hash = address.hashCode() * 0x9E3779B9;  // the hash of an IPv4 address is the address itself, spread it
+		Stripe stripe = this.stripes[hash >>> (32 - STRIPE_BITS)];
+		long now = System.nanoTime();
+		synchronized (stripe)
+		{
+			Bucket bucket = stripe.get(address);
+			if (bucket == null)
+			{
+				bucket = new Bucket(this.burst, now);
+				stripe.put(address, bucket);
+			}
+			else
+			{
+				bucket.tokens = Math.min(this.burst, bucket.tokens + (now - bucket.lastRefillNanos) * this.tokensPerNano);
+				bucket.lastRefillNanos = now;
+			}
+			if (bucket.tokens >= 1)
+			{
+				bucket.tokens -= 1;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static class Bucket
+	{
+		private double tokens;
+		private long lastRefillNanos;
+
+		private Bucket(double tokens, long lastRefillNanos)
+		{
+			this.tokens = tokens;
+			this.lastRefillNanos = lastRefillNanos;
+		}
+	}
+
+	private static class Stripe extends LinkedHashMap<InetAddress, Bucket>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		private Stripe(int capacity)
+		{
+			super(16, 0.75f, true);  // access order, so the eldest entry is the least recently seen IP
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<InetAddress, Bucket> eldest)
+		{
+			return this.size() > this.capacity;
+		}
+	}
+}
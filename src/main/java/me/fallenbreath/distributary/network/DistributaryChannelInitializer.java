@@ -26,16 +26,23 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.handler.codec.haproxy.HAProxyMessage;
 import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
-import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.ReferenceCountUtil;
+import me.fallenbreath.distributary.config.CidrFilter;
 import me.fallenbreath.distributary.config.Config;
 import me.fallenbreath.distributary.mixins.ServerNetworkIoChannelInitializerAccessor;
 import me.fallenbreath.distributary.network.handler.DistributaryPacketHandler;
+import me.fallenbreath.distributary.network.upstream.ConnectionPool;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 
 public class DistributaryChannelInitializer extends ChannelInitializer<Channel>
 {
+	private static final Logger LOGGER = LogManager.getLogger();
+
 	private final ServerNetworkIoChannelInitializerAccessor vanillaInitializer;
 
 	public DistributaryChannelInitializer(ChannelInitializer<Channel> vanillaInitializer)
@@ -46,9 +53,27 @@ public class DistributaryChannelInitializer extends ChannelInitializer<Channel>
 	@Override
 	protected void initChannel(@NotNull Channel channel)
 	{
-		DistributaryPacketHandler distributaryPacketHandler = new DistributaryPacketHandler(ctx -> {
+		// the connection sticks to the config snapshot at the time it's accepted
+		Config config = Config.get();
+
+		// before anything is allocated for the connection. Behind a proxy, it's checked once the real address is known
+		if (config.enabled && !config.haproxy_protocol && !admit(config, channel, ((InetSocketAddress)channel.remoteAddress()).getAddress()))
+		{
+			return;
+		}
+
+		if (!config.enabled || (!config.haproxy_protocol && config.getRouteTable().isEmpty()))
+		{
+			// nothing can be routed, skip all distributary handlers, so the connection costs the same as vanilla.
+			// The PROXY protocol header still needs to be decoded and admitted though, even if there's no route
+			this.vanillaInit(channel);
+			return;
+		}
+
+		ConnectionPool.captureClientEventLoop(channel);
+
+		DistributaryPacketHandler distributaryPacketHandler = new DistributaryPacketHandler(config, ctx -> {
 			for (String name : new String[]{
-					"distributary_timeout",
 					"distributary_handler",
 					"distributary_haproxy_decoder",
 					"distributary_haproxy_handler",
@@ -65,13 +90,13 @@ public class DistributaryChannelInitializer extends ChannelInitializer<Channel>
 			ctx.pipeline().fireChannelActive();
 		});
 
-		channel.pipeline().addLast("distributary_timeout", new ReadTimeoutHandler(30));
+		// the handshake timeout is managed by the handler, and the vanilla handlers have their own read timeout
 		channel.pipeline().addLast("distributary_handler", distributaryPacketHandler);
 
-		if (Config.get().haproxy_protocol)
+		if (config.haproxy_protocol)
 		{
-			channel.pipeline().addAfter("distributary_timeout", "distributary_haproxy_decoder", new HAProxyMessageDecoder());
-			channel.pipeline().addAfter("distributary_haproxy_decoder", "distributary_haproxy_handler", new ChannelInboundHandlerAdapter()
+			channel.pipeline().addBefore("distributary_handler", "distributary_haproxy_decoder", new HAProxyMessageDecoder());
+			channel.pipeline().addBefore("distributary_handler", "distributary_haproxy_handler", new ChannelInboundHandlerAdapter()
 			{
 				@Override
 				public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
@@ -80,7 +105,15 @@ public class DistributaryChannelInitializer extends ChannelInitializer<Channel>
 					{
 						String readAddr = ((HAProxyMessage)msg).sourceAddress();
 						int realPort = ((HAProxyMessage)msg).sourcePort();
+						ReferenceCountUtil.release(msg);
 						distributaryPacketHandler.realClientAddress = new InetSocketAddress(readAddr, realPort);
+						if (!admit(config, channel, distributaryPacketHandler.realClientAddress.getAddress()))
+						{
+							// payload bytes in the same read are fired once the decoder removes itself after the header,
+							// and they should reach no one but the pipeline tail, which releases them
+							ctx.pipeline().remove("distributary_handler");
+							ctx.pipeline().remove(this);
+						}
 					}
 					else
 					{
@@ -91,6 +124,31 @@ public class DistributaryChannelInitializer extends ChannelInitializer<Channel>
 		}
 	}
 
+	/**
+	 * Closes the channel if the client is not allowed by the listener IP filter, or is connecting too fast
+	 *
+	 * @return if the connection is admitted
+	 */
+	private static boolean admit(Config config, Channel channel, InetAddress clientAddress)
+	{
+		// floods would spam the log at the info level
+		CidrFilter ipFilter = config.getIpFilter();
+		if (ipFilter != null && !ipFilter.allows(clientAddress))
+		{
+			if (config.isLoggingEnabled()) LOGGER.debug("Client {} is not allowed, disconnecting", clientAddress);
+			channel.close();
+			return false;
+		}
+		ConnectionRateLimiter rateLimiter = config.getRateLimiter();
+		if (rateLimiter != null && !rateLimiter.tryAcquire(clientAddress))
+		{
+			if (config.isLoggingEnabled()) LOGGER.debug("Client {} is connecting too fast, disconnecting", clientAddress);
+			channel.close();
+			return false;
+		}
+		return true;
+	}
+
 	private void vanillaInit(Channel channel)
 	{
 		this.vanillaInitializer.invokeInitChannel(channel);
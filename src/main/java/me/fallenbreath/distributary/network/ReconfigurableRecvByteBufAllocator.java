@@ -0,0 +1,170 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.util.UncheckedBooleanSupplier;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link RecvByteBufAllocator} whose behavior can be changed after the channel has started reading
+ * <p>
+ * A channel creates the handle of its allocator on its first read and caches it forever,
+ * so replacing the allocator of a channel that has read something takes no effect. This allocator is installed
+ * before the first read instead, behaves like the original allocator, and can be reconfigured later.
+ * Only to be used in the event loop of the channel
+ */
+@SuppressWarnings("deprecation")
+public class ReconfigurableRecvByteBufAllocator implements RecvByteBufAllocator
+{
+	private RecvByteBufAllocator delegate;
+	private int delegateVersion = 0;
+	private int fixedGuess = 0;
+
+	private ReconfigurableRecvByteBufAllocator(RecvByteBufAllocator delegate)
+	{
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Should be called before the first read of the channel
+	 */
+	public static void install(Channel channel)
+	{
+		ChannelConfig config = channel.config();
+		if (!(config.getRecvByteBufAllocator() instanceof ReconfigurableRecvByteBufAllocator))
+		{
+			config.setRecvByteBufAllocator(new ReconfigurableRecvByteBufAllocator(config.getRecvByteBufAllocator()));
+		}
+	}
+
+	@Nullable
+	public static ReconfigurableRecvByteBufAllocator of(Channel channel)
+	{
+		RecvByteBufAllocator allocator = channel.config().getRecvByteBufAllocator();
+		return allocator instanceof ReconfigurableRecvByteBufAllocator ? (ReconfigurableRecvByteBufAllocator)allocator : null;
+	}
+
+	/**
+	 * Takes effect on the next read loop of the channel
+	 */
+	public void setDelegate(RecvByteBufAllocator delegate)
+	{
+		this.delegate = delegate;
+		this.delegateVersion++;
+	}
+
+	/**
+	 * Makes the allocator always guess the given size, regardless of the delegate. 0 means not fixed
+	 */
+	public void setFixedGuess(int fixedGuess)
+	{
+		this.fixedGuess = fixedGuess;
+	}
+
+	@Override
+	public Handle newHandle()
+	{
+		return new ReconfigurableHandle();
+	}
+
+	private class ReconfigurableHandle implements ExtendedHandle
+	{
+		private ExtendedHandle delegate = (ExtendedHandle)ReconfigurableRecvByteBufAllocator.this.delegate.newHandle();
+		private int delegateVersion = ReconfigurableRecvByteBufAllocator.this.delegateVersion;
+
+		@Override
+		public ByteBuf allocate(ByteBufAllocator alloc)
+		{
+			return fixedGuess > 0 ? alloc.ioBuffer(fixedGuess) : this.delegate.allocate(alloc);
+		}
+
+		@Override
+		public int guess()
+		{
+			return fixedGuess > 0 ? fixedGuess : this.delegate.guess();
+		}
+
+		@Override
+		public void reset(ChannelConfig config)
+		{
+			// a read loop starts here, the only safe point to switch the delegate
+			if (this.delegateVersion != ReconfigurableRecvByteBufAllocator.this.delegateVersion)
+			{
+				this.delegate = (ExtendedHandle)ReconfigurableRecvByteBufAllocator.this.delegate.newHandle();
+				this.delegateVersion = ReconfigurableRecvByteBufAllocator.this.delegateVersion;
+			}
+			this.delegate.reset(config);
+		}
+
+		@Override
+		public void incMessagesRead(int numMessages)
+		{
+			this.delegate.incMessagesRead(numMessages);
+		}
+
+		@Override
+		public void lastBytesRead(int bytes)
+		{
+			this.delegate.lastBytesRead(bytes);
+		}
+
+		@Override
+		public int lastBytesRead()
+		{
+			return this.delegate.lastBytesRead();
+		}
+
+		@Override
+		public void attemptedBytesRead(int bytes)
+		{
+			this.delegate.attemptedBytesRead(bytes);
+		}
+
+		@Override
+		public int attemptedBytesRead()
+		{
+			return this.delegate.attemptedBytesRead();
+		}
+
+		@Override
+		public boolean continueReading()
+		{
+			return this.delegate.continueReading();
+		}
+
+		@Override
+		public boolean continueReading(UncheckedBooleanSupplier maybeMoreDataSupplier)
+		{
+			return this.delegate.continueReading(maybeMoreDataSupplier);
+		}
+
+		@Override
+		public void readComplete()
+		{
+			this.delegate.readComplete();
+		}
+	}
+}
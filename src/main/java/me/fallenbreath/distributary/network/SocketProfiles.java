@@ -0,0 +1,126 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network;
+
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.EpollChannelOption;
+import me.fallenbreath.distributary.config.SocketProfile;
+
+/**
+ * Applies {@link SocketProfile}s to channels
+ */
+public final class SocketProfiles
+{
+	private static final String EPOLL_PACKAGE = "io.netty.channel.epoll.";
+
+	/**
+	 * For options that need to be set before connecting. Should be called when the channel is registered
+	 */
+	public static void applyBeforeConnect(Channel channel, SocketProfile profile)
+	{
+		if (profile.tcp_fastopen_connect != null && isEpoll(channel))
+		{
+			EpollOptions.applyBeforeConnect(channel.config(), profile);
+		}
+	}
+
+	/**
+	 * Read buffer sizes of a channel that has started reading only take effect if it has a {@link ReconfigurableRecvByteBufAllocator}
+	 */
+	public static void apply(Channel channel, SocketProfile profile)
+	{
+		ChannelConfig config = channel.config();
+		if (profile.send_buffer_size != null)
+		{
+			config.setOption(ChannelOption.SO_SNDBUF, profile.send_buffer_size);
+		}
+		if (profile.receive_buffer_size != null)
+		{
+			config.setOption(ChannelOption.SO_RCVBUF, profile.receive_buffer_size);
+		}
+		if (profile.keepalive != null)
+		{
+			config.setOption(ChannelOption.SO_KEEPALIVE, profile.keepalive);
+		}
+		if (profile.hasReadBufferSizes())
+		{
+			AdaptiveRecvByteBufAllocator allocator = new AdaptiveRecvByteBufAllocator(profile.read_buffer_min, profile.read_buffer_initial, profile.read_buffer_max);
+			ReconfigurableRecvByteBufAllocator reconfigurable = ReconfigurableRecvByteBufAllocator.of(channel);
+			if (reconfigurable != null)
+			{
+				reconfigurable.setDelegate(allocator);
+			}
+			else
+			{
+				config.setRecvByteBufAllocator(allocator);
+			}
+		}
+		if (isEpoll(channel))
+		{
+			EpollOptions.apply(config, profile);
+		}
+	}
+
+	private static boolean isEpoll(Channel channel)
+	{
+		return channel.getClass().getName().startsWith(EPOLL_PACKAGE);
+	}
+
+	/**
+	 * Epoll classes are only referenced in here, so they won't be loaded on platforms without them
+	 */
+	private static class EpollOptions
+	{
+		@SuppressWarnings("deprecation")  // moved to ChannelOption in newer netty, which old Minecraft versions don't have
+		private static void applyBeforeConnect(ChannelConfig config, SocketProfile profile)
+		{
+			config.setOption(EpollChannelOption.TCP_FASTOPEN_CONNECT, profile.tcp_fastopen_connect);
+		}
+
+		private static void apply(ChannelConfig config, SocketProfile profile)
+		{
+			if (profile.keepalive_idle_s != null)
+			{
+				config.setOption(EpollChannelOption.TCP_KEEPIDLE, profile.keepalive_idle_s);
+			}
+			if (profile.keepalive_interval_s != null)
+			{
+				config.setOption(EpollChannelOption.TCP_KEEPINTVL, profile.keepalive_interval_s);
+			}
+			if (profile.keepalive_count != null)
+			{
+				config.setOption(EpollChannelOption.TCP_KEEPCNT, profile.keepalive_count);
+			}
+			if (profile.tcp_quickack != null)
+			{
+				// the kernel may leave the quick ack mode by itself later, it's a hint rather than a persistent mode
+				config.setOption(EpollChannelOption.TCP_QUICKACK, profile.tcp_quickack);
+			}
+			if (profile.tcp_user_timeout_ms != null)
+			{
+				config.setOption(EpollChannelOption.TCP_USER_TIMEOUT, profile.tcp_user_timeout_ms);
+			}
+		}
+	}
+}
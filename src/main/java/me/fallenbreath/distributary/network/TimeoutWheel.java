@@ -0,0 +1,45 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single {@link HashedWheelTimer} shared by the timeouts of all connections, so a timeout costs a wheel slot
+ * instead of a scheduled task in the event loop of each channel
+ * <p>
+ * Timer tasks run on the timer thread. They should only do thread-safe things like closing a channel,
+ * or hop to the event loop of the channel
+ */
+public class TimeoutWheel
+{
+	// timeouts are at least hundreds of milliseconds, no need to be precise
+	private static final Timer TIMER = new HashedWheelTimer(new DefaultThreadFactory("Distributary Timeout", true), 100, TimeUnit.MILLISECONDS, 512);
+
+	public static Timer get()
+	{
+		return TIMER;
+	}
+}
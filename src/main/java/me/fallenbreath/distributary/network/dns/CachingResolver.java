@@ -0,0 +1,201 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.dns;
+
+import com.google.common.collect.Maps;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.config.RouteTable;
+import me.fallenbreath.distributary.network.upstream.BackgroundEventLoop;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A name -> value cache in front of an asynchronous lookup
+ * <ul>
+ *     <li>Values are cached with the TTL given by the lookup, and a negative result ({@code null}) is cached too</li>
+ *     <li>An expired value is still served for a while, and triggers a refresh in the background (stale-while-revalidate)</li>
+ *     <li>There's at most one lookup in flight for the same name at a time, shared by all callers (single-flight)</li>
+ * </ul>
+ * Lookups and cache writes happen in the {@link #LOOKUP_LOOP}, while reads are lock-free from any thread
+ * <p>
+ * A lookup uses the config snapshot of the caller that starts it, e.g. for the DNS servers and logging,
+ * and other callers of the same name share its result
+ */
+abstract class CachingResolver<V>
+{
+	protected static final EventLoop LOOKUP_LOOP = BackgroundEventLoop.get().next();
+	/**
+	 * For the JDK lookups that can only be done in a blocking way
+	 */
+	protected static final ExecutorService BLOCKING_EXECUTOR = Executors.newCachedThreadPool(new DefaultThreadFactory("Distributary Resolver", true));
+	protected static final long MIN_TTL_MS = 1000;
+	protected static final long MAX_TTL_MS = 60 * 60 * 1000;
+	/**
+	 * For negative results without a TTL from the DNS server, and for failed lookups
+	 */
+	protected static final long DEFAULT_NEGATIVE_TTL_MS = 5 * 1000;
+	private static final int CACHE_CLEANUP_SIZE = 1024;
+
+	private final long maxStaleMs;
+	private final ConcurrentMap<String, CacheEntry<V>> cache = Maps.newConcurrentMap();
+	private final ConcurrentMap<String, Promise<CacheEntry<V>>> lookups = Maps.newConcurrentMap();
+
+	/**
+	 * @param maxStaleMs how long an expired value can still be served after its expiry
+	 */
+	protected CachingResolver(long maxStaleMs)
+	{
+		this.maxStaleMs = maxStaleMs;
+	}
+
+	/**
+	 * Looks up the name in the {@link #LOOKUP_LOOP}, and completes the promise with a new cache entry.
+	 * The promise is failed only if the lookup itself failed, e.g. timed out
+	 */
+	protected abstract void lookup(String name, Config config, Promise<CacheEntry<V>> promise);
+
+	/**
+	 * @return the failure that a negative result means, or null if a negative result is a successful null value
+	 */
+	@Nullable
+	protected abstract Throwable negativeResultCause(String name);
+
+	/**
+	 * @param executor the executor to notify the listeners of the returned future in, usually the caller's event loop
+	 * @param config the config snapshot of the caller, used if a lookup is started
+	 */
+	protected Future<V> get(EventExecutor executor, Config config, String hostname)
+	{
+		String name = RouteTable.normalizeHostname(hostname);
+		long now = System.currentTimeMillis();
+		CacheEntry<V> entry = this.cache.get(name);
+		if (entry != null)
+		{
+			if (now < entry.expireTimeMs)
+			{
+				return this.toFuture(executor, name, entry);
+			}
+			if (now < entry.expireTimeMs + this.maxStaleMs)
+			{
+				this.startLookup(name, config);
+				return this.toFuture(executor, name, entry);
+			}
+		}
+
+		Promise<CacheEntry<V>> lookup = this.startLookup(name, config);
+		Promise<V> promise = executor.newPromise();
+		lookup.addListener(future -> {
+			if (future.isSuccess())
+			{
+				CacheEntry<V> result = lookup.getNow();
+				Throwable cause = result.value == null ? this.negativeResultCause(name) : null;
+				if (cause == null)
+				{
+					promise.trySuccess(result.value);
+				}
+				else
+				{
+					promise.tryFailure(cause);
+				}
+			}
+			else
+			{
+				promise.tryFailure(future.cause());
+			}
+		});
+		return promise;
+	}
+
+	private Future<V> toFuture(EventExecutor executor, String name, CacheEntry<V> entry)
+	{
+		Throwable cause = entry.value == null ? this.negativeResultCause(name) : null;
+		return cause == null ? executor.newSucceededFuture(entry.value) : executor.newFailedFuture(cause);
+	}
+
+	private Promise<CacheEntry<V>> startLookup(String name, Config config)
+	{
+		return this.lookups.computeIfAbsent(name, k -> {
+			Promise<CacheEntry<V>> promise = LOOKUP_LOOP.newPromise();
+			promise.addListener(future -> {
+				if (future.isSuccess())
+				{
+					this.putCache(name, promise.getNow());
+				}
+				else
+				{
+					this.onLookupFailed(name);
+				}
+				this.lookups.remove(name, promise);
+			});
+			// started later, so the lookup never completes inside computeIfAbsent
+			LOOKUP_LOOP.execute(() -> this.lookup(name, config, promise));
+			return promise;
+		});
+	}
+
+	/**
+	 * A stale value is better than nothing, so it's kept. Otherwise the failure is cached as a negative result for a short time
+	 */
+	private void onLookupFailed(String name)
+	{
+		CacheEntry<V> entry = this.cache.get(name);
+		if (entry == null || entry.value == null)
+		{
+			this.putCache(name, new CacheEntry<>(null, DEFAULT_NEGATIVE_TTL_MS));
+		}
+	}
+
+	private void putCache(String name, CacheEntry<V> entry)
+	{
+		if (this.cache.size() >= CACHE_CLEANUP_SIZE)
+		{
+			long now = System.currentTimeMillis();
+			this.cache.values().removeIf(e -> now >= e.expireTimeMs + this.maxStaleMs);
+		}
+		this.cache.put(name, entry);
+	}
+
+	protected static final class CacheEntry<V>
+	{
+		/**
+		 * null for a negative result
+		 */
+		@Nullable private final V value;
+		private final long expireTimeMs;
+
+		/**
+		 * @param ttlMs clamped into [{@link #MIN_TTL_MS}, {@link #MAX_TTL_MS}]
+		 */
+		protected CacheEntry(@Nullable V value, long ttlMs)
+		{
+			this.value = value;
+			this.expireTimeMs = System.currentTimeMillis() + Math.max(MIN_TTL_MS, Math.min(MAX_TTL_MS, ttlMs));
+		}
+	}
+}
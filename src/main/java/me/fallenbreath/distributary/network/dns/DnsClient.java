@@ -0,0 +1,322 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.dns;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.net.InetAddresses;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.network.upstream.BackgroundEventLoop;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal non-blocking DNS stub resolver over UDP
+ * <p>
+ * Queries go to the {@code dns_servers} in the config, or the nameservers in {@code /etc/resolv.conf} if that's empty.
+ * Each query tries the servers in order for up to {@link #ROUNDS} rounds, with {@link #QUERY_TIMEOUT_MS} for each try.
+ * Each try has its own socket, and a response is accepted only if its source, id and question all match the try
+ * <p>
+ * Everything happens in the event loop of the {@link BackgroundEventLoop}
+ */
+public final class DnsClient
+{
+	private static final int DNS_PORT = 53;
+	private static final long QUERY_TIMEOUT_MS = 2000;
+	private static final int ROUNDS = 2;
+	private static final long RESOLV_CONF_REFRESH_MS = 30 * 1000;
+	private static final Path RESOLV_CONF = Paths.get("/etc/resolv.conf");
+	private static final DnsClient INSTANCE = new DnsClient();
+
+	private final EventLoop eventLoop = BackgroundEventLoop.get().next();
+	private final Random random = new SecureRandom();
+
+	private static volatile List<InetSocketAddress> systemServers = Collections.emptyList();
+	private static volatile long systemServersReadTimeMs = 0;
+
+	private DnsClient()
+	{
+	}
+
+	public static DnsClient getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the DNS servers to use with the given config, might be empty if there's nothing configured and nothing in {@code /etc/resolv.conf}
+	 */
+	public static List<InetSocketAddress> getServers(Config config)
+	{
+		List<String> configured = config.dns_servers;
+		if (!configured.isEmpty())
+		{
+			List<InetSocketAddress> servers = Lists.newArrayListWithCapacity(configured.size());
+			for (String server : configured)
+			{
+				servers.add(parseServer(server));
+			}
+			return servers;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - systemServersReadTimeMs >= RESOLV_CONF_REFRESH_MS)
+		{
+			systemServersReadTimeMs = now;
+			systemServers = readResolvConf();
+		}
+		return systemServers;
+	}
+
+	/**
+	 * @param server an IP address, with an optional port
+	 * @throws IllegalArgumentException if it's not an IP address
+	 */
+	public static InetSocketAddress parseServer(String server)
+	{
+		Address address = InetAddresses.isInetAddress(server) ? new Address(server, null) : Address.of(server);
+		if (!InetAddresses.isInetAddress(address.hostname))
+		{
+			throw new IllegalArgumentException(String.format("bad dns server \"%s\", should be an IP address with an optional port", server));
+		}
+		return new InetSocketAddress(InetAddresses.forString(address.hostname), address.port != null ? address.port : DNS_PORT);
+	}
+
+	private static List<InetSocketAddress> readResolvConf()
+	{
+		if (!Files.isRegularFile(RESOLV_CONF))
+		{
+			return Collections.emptyList();
+		}
+		ImmutableList.Builder<InetSocketAddress> servers = ImmutableList.builder();
+		try
+		{
+			for (String line : Files.readAllLines(RESOLV_CONF, StandardCharsets.UTF_8))
+			{
+				String[] parts = line.trim().split("\\s+");
+				// link-local addresses with a zone id like fe80::1%eth0 are not supported
+				if (parts.length >= 2 && parts[0].equals("nameserver") && InetAddresses.isInetAddress(parts[1]))
+				{
+					servers.add(new InetSocketAddress(InetAddresses.forString(parts[1]), DNS_PORT));
+				}
+			}
+		}
+		catch (IOException ignored)
+		{
+		}
+		return servers.build();
+	}
+
+	/**
+	 * @param servers from {@link #getServers}
+	 * @return a future of the response, which fails if no server gives a usable response in time
+	 */
+	public Future<DnsMessage> query(List<InetSocketAddress> servers, String name, int type)
+	{
+		Promise<DnsMessage> promise = this.eventLoop.newPromise();
+		this.eventLoop.execute(() -> {
+			if (servers.isEmpty())
+			{
+				promise.tryFailure(new UnknownHostException("no dns server available"));
+				return;
+			}
+			this.send(new Query(name, type, servers, promise), 0);
+		});
+		return promise;
+	}
+
+	private void send(Query query, int attempt)
+	{
+		int id = this.random.nextInt(0x10000);
+		ByteBuf buf;
+		try
+		{
+			buf = DnsMessage.encodeQuery(ByteBufAllocator.DEFAULT, id, query.name, query.type);
+		}
+		catch (IllegalArgumentException e)
+		{
+			query.promise.tryFailure(e);
+			return;
+		}
+
+		query.id = id;
+		query.attempt = attempt;
+		query.server = query.servers.get(attempt % query.servers.size());
+		query.timeout = this.eventLoop.schedule(() -> this.onFailure(query, attempt, new UnknownHostException("dns query timed out: " + query.name)), QUERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+		// a new socket for each try, on a port randomly chosen by the kernel,
+		// so a blind spoofer has to guess the port besides the id and the question
+		ChannelFuture bindFuture = new Bootstrap().
+				group(this.eventLoop).
+				channel(NioDatagramChannel.class).
+				handler(new ResponseHandler(query, attempt)).
+				bind(0);
+		query.channel = bindFuture.channel();
+		bindFuture.addListener(future -> {
+			if (future.isSuccess() && query.attempt == attempt)
+			{
+				bindFuture.channel().writeAndFlush(new DatagramPacket(buf, query.server));
+			}
+			else
+			{
+				buf.release();
+				this.onFailure(query, attempt, future.cause() != null ? future.cause() : new UnknownHostException("dns query cancelled: " + query.name));
+			}
+		});
+	}
+
+	/**
+	 * Ends the current try of the query, a no-op if the try is already over
+	 *
+	 * @return if the try was still going on
+	 */
+	private boolean endAttempt(Query query, int attempt)
+	{
+		if (query.promise.isDone() || query.attempt != attempt || query.channel == null)
+		{
+			return false;
+		}
+		query.timeout.cancel(false);
+		query.channel.close();
+		query.channel = null;
+		return true;
+	}
+
+	private void onFailure(Query query, int attempt, Throwable cause)
+	{
+		if (!this.endAttempt(query, attempt))
+		{
+			return;
+		}
+		if (attempt + 1 < query.servers.size() * ROUNDS)
+		{
+			this.send(query, attempt + 1);
+		}
+		else
+		{
+			query.promise.tryFailure(cause);
+		}
+	}
+
+	private void onResponse(Query query, int attempt, DatagramPacket packet)
+	{
+		if (query.attempt != attempt || !query.server.equals(packet.sender()))
+		{
+			return;  // late or spoofed
+		}
+		DnsMessage message;
+		try
+		{
+			message = DnsMessage.decodeResponse(packet.content());
+		}
+		catch (IllegalArgumentException e)
+		{
+			return;  // garbage, let the query time out
+		}
+		if (message.id != query.id || !message.isResponseTo(query.name, query.type))
+		{
+			return;  // spoofed
+		}
+		if (message.rcode != DnsMessage.RCODE_NOERROR && message.rcode != DnsMessage.RCODE_NXDOMAIN)
+		{
+			// SERVFAIL, REFUSED etc., another server might do better
+			this.onFailure(query, attempt, new UnknownHostException(String.format("dns server %s failed to resolve %s, rcode %d", query.server, query.name, message.rcode)));
+			return;
+		}
+
+		if (this.endAttempt(query, attempt))
+		{
+			query.promise.trySuccess(message);
+		}
+	}
+
+	private class ResponseHandler extends SimpleChannelInboundHandler<DatagramPacket>
+	{
+		private final Query query;
+		private final int attempt;
+
+		private ResponseHandler(Query query, int attempt)
+		{
+			this.query = query;
+			this.attempt = attempt;
+		}
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet)
+		{
+			DnsClient.this.onResponse(this.query, this.attempt, packet);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			// e.g. ICMP port unreachable, the query will time out and go to the next server
+		}
+	}
+
+	private static class Query
+	{
+		private final String name;
+		private final int type;
+		private final List<InetSocketAddress> servers;
+		private final Promise<DnsMessage> promise;
+		private int id;
+		private int attempt;
+		private InetSocketAddress server;
+		private ScheduledFuture<?> timeout;
+		// of the current try, null once the try is over
+		@Nullable private Channel channel;
+
+		private Query(String name, int type, List<InetSocketAddress> servers, Promise<DnsMessage> promise)
+		{
+			this.name = name;
+			this.type = type;
+			this.servers = servers;
+			this.promise = promise;
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.dns;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encoder of DNS queries and decoder of DNS responses, in the wire format of RFC 1035
+ * <p>
+ * Only the record types distributary needs are decoded, others are skipped
+ */
+public final class DnsMessage
+{
+	public static final int TYPE_A = 1;
+	public static final int TYPE_CNAME = 5;
+	public static final int TYPE_SOA = 6;
+	public static final int TYPE_AAAA = 28;
+	public static final int TYPE_SRV = 33;
+
+	public static final int RCODE_NOERROR = 0;
+	public static final int RCODE_NXDOMAIN = 3;
+
+	private static final int CLASS_IN = 1;
+	private static final int FLAG_QR = 0x8000;
+	private static final int FLAG_TC = 0x0200;
+	private static final int FLAG_RD = 0x0100;
+	private static final int MAX_LABELS = 128;
+	// resolvers give up on much shorter chains
+	private static final int MAX_CNAME_CHAIN = 16;
+
+	public final int id;
+	public final int rcode;
+	public final boolean truncated;
+	/**
+	 * Normalized by {@link #normalizeName}
+	 */
+	private final String questionName;
+	private final int questionType;
+	private final int questionClass;
+	public final List<Record> answers;
+	/**
+	 * TTL for caching the absence of the answers, from the SOA record in the authority section (RFC 2308), or -1 if there's none
+	 */
+	public final long negativeTtl;
+
+	private DnsMessage(int id, int rcode, boolean truncated, String questionName, int questionType, int questionClass, List<Record> answers, long negativeTtl)
+	{
+		this.id = id;
+		this.rcode = rcode;
+		this.truncated = truncated;
+		this.questionName = questionName;
+		this.questionType = questionType;
+		this.questionClass = questionClass;
+		this.answers = answers;
+		this.negativeTtl = negativeTtl;
+	}
+
+	public static ByteBuf encodeQuery(ByteBufAllocator allocator, int id, String name, int type)
+	{
+		ByteBuf buf = allocator.buffer(12 + name.length() + 2 + 4);
+		buf.writeShort(id);
+		buf.writeShort(FLAG_RD);
+		buf.writeShort(1);  // questions
+		buf.writeShort(0);  // answers
+		buf.writeShort(0);  // authorities
+		buf.writeShort(0);  // additional records
+		for (String label : name.split("\\."))
+		{
+			if (label.isEmpty())
+			{
+				continue;
+			}
+			byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+			if (bytes.length > 63)
+			{
+				buf.release();
+				throw new IllegalArgumentException("label too long in " + name);
+			}
+			buf.writeByte(bytes.length);
+			buf.writeBytes(bytes);
+		}
+		buf.writeByte(0);
+		buf.writeShort(type);
+		buf.writeShort(CLASS_IN);
+		return buf;
+	}
+
+	/**
+	 * Only the answer records of the question name, and of the names reached through its CNAME chain, are kept,
+	 * so a response can't slip records of other names into the cache
+	 *
+	 * @throws IllegalArgumentException if the message is malformed, is not a response, or doesn't have exactly 1 question
+	 */
+	public static DnsMessage decodeResponse(ByteBuf buf)
+	{
+		int base = buf.readerIndex();
+		int id;
+		int flags;
+		int answerCount;
+		int authorityCount;
+		String questionName;
+		int questionType;
+		int questionClass;
+		try
+		{
+			id = buf.readUnsignedShort();
+			flags = buf.readUnsignedShort();
+			if ((flags & FLAG_QR) == 0)
+			{
+				throw new IllegalArgumentException("not a response");
+			}
+			int questionCount = buf.readUnsignedShort();
+			answerCount = buf.readUnsignedShort();
+			authorityCount = buf.readUnsignedShort();
+			buf.skipBytes(2);  // additional records are not used
+			if (questionCount != 1)
+			{
+				throw new IllegalArgumentException("expecting 1 question, found " + questionCount);
+			}
+			questionName = readName(buf, base);
+			questionType = buf.readUnsignedShort();
+			questionClass = buf.readUnsignedShort();
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			// even a truncated response has the whole question
+			throw new IllegalArgumentException("truncated message", e);
+		}
+
+		try
+		{
+			List<Record> records = Lists.newArrayListWithCapacity(answerCount);
+			Map<String, String> cnames = Maps.newHashMap();
+			for (int i = 0; i < answerCount; i++)
+			{
+				readRecord(buf, base, records, cnames);
+			}
+
+			Set<String> names = Sets.newHashSet(questionName);
+			String name = questionName;
+			for (int i = 0; i < MAX_CNAME_CHAIN && (name = cnames.get(name)) != null; i++)
+			{
+				names.add(name);
+			}
+			List<Record> answers = Lists.newArrayListWithCapacity(records.size());
+			for (Record record : records)
+			{
+				if (names.contains(record.name))
+				{
+					answers.add(record);
+				}
+			}
+
+			long negativeTtl = -1;
+			for (int i = 0; i < authorityCount; i++)
+			{
+				skipName(buf);
+				int type = buf.readUnsignedShort();
+				buf.skipBytes(2);
+				long ttl = buf.readUnsignedInt();
+				int length = buf.readUnsignedShort();
+				int end = buf.readerIndex() + length;
+				if (type == TYPE_SOA)
+				{
+					// mname, rname, serial, refresh, retry, expire, minimum
+					skipName(buf);
+					skipName(buf);
+					buf.skipBytes(16);
+					negativeTtl = Math.min(ttl, buf.readUnsignedInt());
+				}
+				buf.readerIndex(end);
+			}
+
+			return new DnsMessage(id, flags & 0xF, (flags & FLAG_TC) != 0, questionName, questionType, questionClass, answers, negativeTtl);
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			if ((flags & FLAG_TC) != 0)
+			{
+				// a truncated answer might be cut in the middle of a record, and it's not usable anyway
+				return new DnsMessage(id, flags & 0xF, true, questionName, questionType, questionClass, Collections.emptyList(), -1);
+			}
+			throw new IllegalArgumentException("truncated message", e);
+		}
+	}
+
+	/**
+	 * Whether the question echoed in this response is the one of the query,
+	 * so a forged response has to guess the question too, besides the id and the source port
+	 */
+	public boolean isResponseTo(String name, int type)
+	{
+		return this.questionClass == CLASS_IN && this.questionType == type && this.questionName.equals(normalizeName(name));
+	}
+
+	/**
+	 * Reads an answer record into {@code records} if it's an A, AAAA or SRV record, or into {@code cnames} if it's a CNAME record
+	 */
+	private static void readRecord(ByteBuf buf, int base, List<Record> records, Map<String, String> cnames)
+	{
+		String name = readName(buf, base);
+		int type = buf.readUnsignedShort();
+		int clazz = buf.readUnsignedShort();
+		long ttl = buf.readUnsignedInt();
+		int length = buf.readUnsignedShort();
+		int end = buf.readerIndex() + length;
+
+		if (clazz == CLASS_IN && ((type == TYPE_A && length == 4) || (type == TYPE_AAAA && length == 16)))
+		{
+			byte[] bytes = new byte[length];
+			buf.readBytes(bytes);
+			try
+			{
+				records.add(new Record(name, type, ttl, InetAddress.getByAddress(bytes), null));
+			}
+			catch (UnknownHostException e)
+			{
+				throw new AssertionError(e);  // never happens for 4 or 16 bytes
+			}
+		}
+		else if (clazz == CLASS_IN && type == TYPE_SRV)
+		{
+			int priority = buf.readUnsignedShort();
+			int weight = buf.readUnsignedShort();
+			int port = buf.readUnsignedShort();
+			String target = readName(buf, base);
+			records.add(new Record(name, type, ttl, null, new SrvRecord(priority, weight, port, target)));
+		}
+		else if (clazz == CLASS_IN && type == TYPE_CNAME)
+		{
+			cnames.put(name, readName(buf, base));
+		}
+		buf.readerIndex(end);
+	}
+
+	/**
+	 * Lowercase, and without the trailing dot, the same as what {@link #readName} returns
+	 */
+	private static String normalizeName(String name)
+	{
+		return StringUtils.removeEnd(name, ".").toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Reads a domain name at the reader index, following compression pointers, which are offsets from the message start
+	 *
+	 * @return the lowercase name without the trailing dot, or an empty string for the root
+	 */
+	private static String readName(ByteBuf buf, int base)
+	{
+		StringBuilder sb = new StringBuilder();
+		int index = buf.readerIndex();
+		int endIndex = -1;  // where the reader index goes after the name, set on the first pointer
+		for (int i = 0; i < MAX_LABELS; i++)
+		{
+			int length = buf.getUnsignedByte(index);
+			if (length == 0)
+			{
+				buf.readerIndex(endIndex != -1 ? endIndex : index + 1);
+				return sb.toString().toLowerCase(Locale.ROOT);
+			}
+			if ((length & 0xC0) == 0xC0)
+			{
+				if (endIndex == -1)
+				{
+					endIndex = index + 2;
+				}
+				index = base + (buf.getUnsignedShort(index) & 0x3FFF);
+				continue;
+			}
+			if (sb.length() > 0)
+			{
+				sb.append('.');
+			}
+			sb.append(buf.toString(index + 1, length, StandardCharsets.US_ASCII));
+			index += 1 + length;
+		}
+		throw new IllegalArgumentException("too many labels or a pointer loop");
+	}
+
+	/**
+	 * Skips a domain name at the reader index, which might end with a compression pointer
+	 */
+	private static void skipName(ByteBuf buf)
+	{
+		for (int i = 0; i < MAX_LABELS; i++)
+		{
+			int length = buf.readUnsignedByte();
+			if (length == 0)
+			{
+				return;
+			}
+			if ((length & 0xC0) == 0xC0)
+			{
+				buf.skipBytes(1);  // a pointer ends the name
+				return;
+			}
+			buf.skipBytes(length);
+		}
+		throw new IllegalArgumentException("too many labels");
+	}
+
+	@SuppressWarnings("ClassCanBeRecord")
+	public static final class Record
+	{
+		/**
+		 * The owner name, normalized by {@link #normalizeName}
+		 */
+		public final String name;
+		public final int type;
+		/**
+		 * In seconds
+		 */
+		public final long ttl;
+		/**
+		 * For A and AAAA records
+		 */
+		@Nullable public final InetAddress address;
+		/**
+		 * For SRV records
+		 */
+		@Nullable public final SrvRecord srv;
+
+		private Record(String name, int type, long ttl, @Nullable InetAddress address, @Nullable SrvRecord srv)
+		{
+			this.name = name;
+			this.type = type;
+			this.ttl = ttl;
+			this.address = address;
+			this.srv = srv;
+		}
+	}
+
+	@SuppressWarnings("ClassCanBeRecord")
+	public static final class SrvRecord
+	{
+		public final int priority;
+		public final int weight;
+		public final int port;
+		public final String target;
+
+		public SrvRecord(int priority, int weight, int port, String target)
+		{
+			this.priority = priority;
+			this.weight = weight;
+			this.port = port;
+			this.target = target;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d %d %d %s", this.priority, this.weight, this.port, this.target);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.dns;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.InetAddresses;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import me.fallenbreath.distributary.DistributaryMod;
+import me.fallenbreath.distributary.config.Config;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves hostnames of backends to addresses without blocking the caller's event loop
+ * <p>
+ * A and AAAA records are queried with the {@link DnsClient}, and cached by the {@link CachingResolver} with the record TTLs.
+ * If DNS has no answer, or there's no DNS server to use, it falls back to the JDK resolver in a dedicated thread,
+ * so names only in the hosts file like {@code localhost} still work
+ */
+public final class HostResolver extends CachingResolver<List<InetAddress>>
+{
+	private static final HostResolver INSTANCE = new HostResolver();
+	private static final long MAX_STALE_MS = 5 * 60 * 1000;
+	private static final long JDK_TTL_MS = 30 * 1000;
+	private static final boolean PREFER_IPV6 = Boolean.getBoolean("java.net.preferIPv6Addresses");
+
+	private HostResolver()
+	{
+		super(MAX_STALE_MS);
+	}
+
+	/**
+	 * @param executor the executor to notify the listeners of the returned future in, usually the caller's event loop
+	 * @param config the config snapshot of the caller
+	 * @return a future of the addresses of the hostname, never empty if succeeded
+	 */
+	public static Future<List<InetAddress>> resolve(EventExecutor executor, Config config, String hostname)
+	{
+		if (InetAddresses.isInetAddress(hostname))
+		{
+			return executor.newSucceededFuture(ImmutableList.of(InetAddresses.forString(hostname)));
+		}
+		return INSTANCE.get(executor, config, hostname);
+	}
+
+	@Override
+	protected Throwable negativeResultCause(String name)
+	{
+		return new UnknownHostException(name);
+	}
+
+	@Override
+	protected void lookup(String name, Config config, Promise<CacheEntry<List<InetAddress>>> promise)
+	{
+		List<InetSocketAddress> servers = DnsClient.getServers(config);
+		if (servers.isEmpty())
+		{
+			lookupWithJdk(name, promise, DEFAULT_NEGATIVE_TTL_MS);
+			return;
+		}
+
+		DnsClient client = DnsClient.getInstance();
+		Future<DnsMessage> v4 = client.query(servers, name, DnsMessage.TYPE_A);
+		Future<DnsMessage> v6 = client.query(servers, name, DnsMessage.TYPE_AAAA);
+		// both futures complete in the same event loop, so there's no race between the listeners
+		v4.addListener(f -> onDnsResponses(config, name, promise, v4, v6));
+		v6.addListener(f -> onDnsResponses(config, name, promise, v4, v6));
+	}
+
+	private static boolean isTruncated(Future<DnsMessage> future)
+	{
+		DnsMessage message = future.getNow();
+		return message != null && message.truncated;
+	}
+
+	private static void onDnsResponses(Config config, String name, Promise<CacheEntry<List<InetAddress>>> promise, Future<DnsMessage> v4, Future<DnsMessage> v6)
+	{
+		if (!v4.isDone() || !v6.isDone())
+		{
+			return;
+		}
+
+		if (isTruncated(v4) || isTruncated(v6))
+		{
+			// the answer over UDP is incomplete, and the JDK resolver of the system retries over TCP
+			if (config.isLoggingEnabled()) DistributaryMod.LOGGER.debug("DNS answer of {} is truncated, resolving it with the JDK", name);
+			lookupWithJdk(name, promise, DEFAULT_NEGATIVE_TTL_MS);
+			return;
+		}
+
+		ImmutableList.Builder<InetAddress> v4Addresses = ImmutableList.builder();
+		ImmutableList.Builder<InetAddress> v6Addresses = ImmutableList.builder();
+		long ttl = Long.MAX_VALUE;
+		long negativeTtl = -1;
+		for (Future<DnsMessage> future : Arrays.asList(v4, v6))
+		{
+			DnsMessage message = future.getNow();
+			if (message == null)
+			{
+				continue;
+			}
+			for (DnsMessage.Record record : message.answers)
+			{
+				if (record.address != null)
+				{
+					(record.address instanceof Inet6Address ? v6Addresses : v4Addresses).add(record.address);
+					ttl = Math.min(ttl, record.ttl);
+				}
+			}
+			negativeTtl = Math.max(negativeTtl, message.negativeTtl);
+		}
+
+		// same family order as the JDK resolver
+		List<InetAddress> addresses = PREFER_IPV6 ?
+				ImmutableList.<InetAddress>builder().addAll(v6Addresses.build()).addAll(v4Addresses.build()).build() :
+				ImmutableList.<InetAddress>builder().addAll(v4Addresses.build()).addAll(v6Addresses.build()).build();
+		if (!addresses.isEmpty())
+		{
+			if (config.isLoggingEnabled()) DistributaryMod.LOGGER.debug("Resolved {} to {}, ttl {}s", name, addresses, ttl);
+			promise.trySuccess(new CacheEntry<>(addresses, ttl * 1000));
+		}
+		else
+		{
+			lookupWithJdk(name, promise, negativeTtl >= 0 ? negativeTtl * 1000 : DEFAULT_NEGATIVE_TTL_MS);
+		}
+	}
+
+	private static void lookupWithJdk(String name, Promise<CacheEntry<List<InetAddress>>> promise, long negativeTtlMs)
+	{
+		BLOCKING_EXECUTOR.execute(() -> {
+			try
+			{
+				List<InetAddress> addresses = ImmutableList.copyOf(InetAddress.getAllByName(name));
+				promise.trySuccess(new CacheEntry<>(addresses, JDK_TTL_MS));
+			}
+			catch (UnknownHostException e)
+			{
+				promise.trySuccess(new CacheEntry<>(null, negativeTtlMs));
+			}
+		});
+	}
+}
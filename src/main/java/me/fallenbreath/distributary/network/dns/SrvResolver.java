@@ -0,0 +1,244 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.dns;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import me.fallenbreath.distributary.DistributaryMod;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.Config;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Resolves the {@code _minecraft._tcp} SRV record of a hostname without blocking the caller's event loop
+ * <p>
+ * Records are queried with the {@link DnsClient}, and cached by the {@link CachingResolver} with the record TTLs.
+ * Expired records are served for up to {@link #MAX_STALE_MS} while being refreshed,
+ * so a recently resolved hostname never makes a player wait for DNS.
+ * If there's no DNS server to use, it falls back to a JNDI lookup in a dedicated thread
+ */
+public final class SrvResolver extends CachingResolver<List<DnsMessage.SrvRecord>>
+{
+	private static final SrvResolver INSTANCE = new SrvResolver();
+	private static final long MAX_STALE_MS = 60 * 60 * 1000;
+	/**
+	 * JNDI doesn't expose record TTLs
+	 */
+	private static final long JNDI_TTL_MS = 60 * 1000;
+	private static final String SRV_PREFIX = "_minecraft._tcp.";
+
+	private SrvResolver()
+	{
+		super(MAX_STALE_MS);
+	}
+
+	/**
+	 * @param executor the executor to notify the listeners of the returned future in, usually the caller's event loop
+	 * @param config the config snapshot of the caller
+	 * @return a future of the addresses of the SRV records in the order to try them, see {@link #order},
+	 * or of an empty list if there's no SRV record
+	 */
+	public static Future<List<Address>> resolveSrv(EventExecutor executor, Config config, String hostname)
+	{
+		Promise<List<Address>> promise = executor.newPromise();
+		INSTANCE.get(executor, config, hostname).addListener(future -> {
+			@SuppressWarnings("unchecked")
+			List<DnsMessage.SrvRecord> records = future.isSuccess() ? (List<DnsMessage.SrvRecord>)future.getNow() : null;
+			List<Address> addresses = Lists.newArrayList();
+			if (records != null)
+			{
+				for (DnsMessage.SrvRecord record : order(records))
+				{
+					addresses.add(new Address(record.target, record.port));
+				}
+			}
+			promise.trySuccess(addresses);
+		});
+		return promise;
+	}
+
+	/**
+	 * Orders the records as RFC 2782 describes: by priority, lowest first,
+	 * and randomly by their weights within the same priority, as a repeated weighted selection
+	 *
+	 * @return an empty list if there's no record, or the service is explicitly not available (target ".")
+	 */
+	static List<DnsMessage.SrvRecord> order(List<DnsMessage.SrvRecord> records)
+	{
+		for (DnsMessage.SrvRecord record : records)
+		{
+			if (record.target.isEmpty())
+			{
+				return Collections.emptyList();
+			}
+		}
+
+		List<DnsMessage.SrvRecord> remaining = Lists.newArrayList(records);
+		remaining.sort(Comparator.comparingInt(record -> record.priority));
+		List<DnsMessage.SrvRecord> ordered = Lists.newArrayListWithCapacity(remaining.size());
+		int groupStart = 0;
+		while (groupStart < remaining.size())
+		{
+			int priority = remaining.get(groupStart).priority;
+			int groupEnd = groupStart;
+			while (groupEnd < remaining.size() && remaining.get(groupEnd).priority == priority)
+			{
+				groupEnd++;
+			}
+			List<DnsMessage.SrvRecord> group = Lists.newArrayList(remaining.subList(groupStart, groupEnd));
+			while (!group.isEmpty())
+			{
+				ordered.add(group.remove(selectIndex(group)));
+			}
+			groupStart = groupEnd;
+		}
+		return ordered;
+	}
+
+	/**
+	 * Selects a record randomly by their weights. Records with weight 0 only get selected when all of them have weight 0
+	 */
+	private static int selectIndex(List<DnsMessage.SrvRecord> group)
+	{
+		int totalWeight = 0;
+		for (DnsMessage.SrvRecord record : group)
+		{
+			totalWeight += record.weight;
+		}
+		int offset = ThreadLocalRandom.current().nextInt(totalWeight > 0 ? totalWeight : group.size());
+		for (int i = 0; i < group.size(); i++)
+		{
+			offset -= totalWeight > 0 ? group.get(i).weight : 1;
+			if (offset < 0)
+			{
+				return i;
+			}
+		}
+		throw new AssertionError();  // the offset is less than the total
+	}
+
+	@Override
+	protected Throwable negativeResultCause(String name)
+	{
+		return null;  // no SRV record is a normal result
+	}
+
+	@Override
+	protected void lookup(String name, Config config, Promise<CacheEntry<List<DnsMessage.SrvRecord>>> promise)
+	{
+		List<InetSocketAddress> servers = DnsClient.getServers(config);
+		if (servers.isEmpty())
+		{
+			BLOCKING_EXECUTOR.execute(() -> lookupWithJndi(name, promise));
+			return;
+		}
+
+		DnsClient.getInstance().query(servers, SRV_PREFIX + name, DnsMessage.TYPE_SRV).addListener(future -> {
+			if (!future.isSuccess())
+			{
+				promise.tryFailure(future.cause());
+				return;
+			}
+
+			DnsMessage message = (DnsMessage)future.getNow();
+			if (message.truncated)
+			{
+				// the answer over UDP is incomplete, and JNDI retries over TCP
+				if (config.isLoggingEnabled()) DistributaryMod.LOGGER.debug("DNS answer of SRV of {} is truncated, resolving it with JNDI", name);
+				BLOCKING_EXECUTOR.execute(() -> lookupWithJndi(name, promise));
+				return;
+			}
+			ImmutableList.Builder<DnsMessage.SrvRecord> records = ImmutableList.builder();
+			long ttl = Long.MAX_VALUE;
+			for (DnsMessage.Record record : message.answers)
+			{
+				if (record.srv != null)
+				{
+					records.add(record.srv);
+					ttl = Math.min(ttl, record.ttl);
+				}
+			}
+
+			List<DnsMessage.SrvRecord> result = records.build();
+			if (!result.isEmpty())
+			{
+				if (config.isLoggingEnabled()) DistributaryMod.LOGGER.debug("Resolved SRV of {} to {}, ttl {}s", name, result, ttl);
+				promise.trySuccess(new CacheEntry<>(result, ttl * 1000));
+			}
+			else
+			{
+				promise.trySuccess(new CacheEntry<>(null, message.negativeTtl >= 0 ? message.negativeTtl * 1000 : DEFAULT_NEGATIVE_TTL_MS));
+			}
+		});
+	}
+
+	private static void lookupWithJndi(String name, Promise<CacheEntry<List<DnsMessage.SrvRecord>>> promise)
+	{
+		try
+		{
+			Class.forName("com.sun.jndi.dns.DnsContextFactory");
+
+			Hashtable<String, String> hashtable = new Hashtable<>();
+			hashtable.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
+			hashtable.put("java.naming.provider.url", "dns:");
+			hashtable.put("com.sun.jndi.dns.timeout.retries", "1");
+			DirContext dirContext = new InitialDirContext(hashtable);
+
+			Attribute attribute = dirContext.getAttributes(SRV_PREFIX + name, new String[]{"SRV"}).get("srv");
+			ImmutableList.Builder<DnsMessage.SrvRecord> records = ImmutableList.builder();
+			if (attribute != null)
+			{
+				NamingEnumeration<?> values = attribute.getAll();
+				while (values.hasMore())
+				{
+					// priority weight port target
+					String[] parts = values.next().toString().split(" ", 4);
+					records.add(new DnsMessage.SrvRecord(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), StringUtils.removeEnd(parts[3], ".")));
+				}
+			}
+			List<DnsMessage.SrvRecord> result = records.build();
+			promise.trySuccess(new CacheEntry<>(result.isEmpty() ? null : result, result.isEmpty() ? DEFAULT_NEGATIVE_TTL_MS : JNDI_TTL_MS));
+		}
+		catch (NameNotFoundException e)
+		{
+			promise.trySuccess(new CacheEntry<>(null, DEFAULT_NEGATIVE_TTL_MS));
+		}
+		catch (Throwable t)
+		{
+			promise.tryFailure(t);
+		}
+	}
+}
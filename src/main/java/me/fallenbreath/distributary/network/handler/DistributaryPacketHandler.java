@@ -20,20 +20,25 @@
 
 package me.fallenbreath.distributary.network.handler;
 
-import com.google.common.collect.Lists;
-import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.handler.codec.ByteToMessageDecoder;
-import io.netty.handler.codec.haproxy.*;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.CidrFilter;
+import me.fallenbreath.distributary.config.CompiledRoute;
 import me.fallenbreath.distributary.config.Config;
 import me.fallenbreath.distributary.config.Route;
-import me.fallenbreath.distributary.network.sniffer.LegacyHandshakeSniffer;
-import me.fallenbreath.distributary.network.sniffer.ModernHandshakeSniffer;
-import me.fallenbreath.distributary.network.sniffer.Sniffer;
-import me.fallenbreath.distributary.network.sniffer.SniffingResult;
-import me.fallenbreath.distributary.utils.SrvResolver;
+import me.fallenbreath.distributary.config.RouteTable;
+import me.fallenbreath.distributary.config.RouteType;
+import me.fallenbreath.distributary.network.ReconfigurableRecvByteBufAllocator;
+import me.fallenbreath.distributary.network.SocketProfiles;
+import me.fallenbreath.distributary.network.TimeoutWheel;
+import me.fallenbreath.distributary.network.sniffer.*;
+import me.fallenbreath.distributary.network.upstream.StatusCache;
+import me.fallenbreath.distributary.network.upstream.UpstreamConnector;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -42,207 +47,351 @@ import org.jetbrains.annotations.Nullable;
 
 import java.net.Inet4Address;
 import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.Iterator;
+import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class DistributaryPacketHandler extends ByteToMessageDecoder
 {
 	private static final Logger LOGGER = LogManager.getLogger();
 
+	private final Config config;
 	private final Consumer<ChannelHandlerContext> restoreToVanilla;
-	private final List<Sniffer> sniffers;
+	@Nullable private Sniffer sniffer = null;
 	public InetSocketAddress realClientAddress = null;
+	@Nullable private Timeout handshakeTimeout = null;
 
-	public DistributaryPacketHandler(Consumer<ChannelHandlerContext> restoreToVanilla)
+	public DistributaryPacketHandler(Config config, Consumer<ChannelHandlerContext> restoreToVanilla)
 	{
+		this.config = config;
 		this.restoreToVanilla = restoreToVanilla;
-		this.sniffers = Lists.newArrayList(
-				new ModernHandshakeSniffer(),
-				new LegacyHandshakeSniffer()
-		);
 	}
 
 	@Override
-	protected void decode(ChannelHandlerContext ctx, ByteBuf byteBuf, List<Object> list)
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception
 	{
-		byteBuf.markReaderIndex();
+		super.handlerAdded(ctx);
+		if (this.config.getRouteTable().needsReconfigurableReads())
+		{
+			ReconfigurableRecvByteBufAllocator.install(ctx.channel());
+		}
 
-		boolean routeFailed = false;
+		// the handler gets removed once the handshake is handled, either forwarding or going vanilla
+		this.handshakeTimeout = TimeoutWheel.get().newTimeout(timeout -> ctx.channel().eventLoop().execute(() -> {
+			if (!ctx.isRemoved())
+			{
+				if (this.config.isLoggingEnabled()) LOGGER.info("No handshake from client {} within {}ms, disconnecting", ctx.channel().remoteAddress(), this.config.handshake_timeout_ms);
+				ctx.channel().close();
+			}
+		}), this.config.handshake_timeout_ms, TimeUnit.MILLISECONDS);
+	}
 
-		loopLabel:
-		for (Iterator<Sniffer> iterator = this.sniffers.iterator(); iterator.hasNext(); )
+	@Override
+	protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception
+	{
+		if (this.handshakeTimeout != null)
 		{
-			Sniffer sniffer = iterator.next();
-
-			SniffingResult result = sniffer.sniff(byteBuf);
-			byteBuf.resetReaderIndex();
+			this.handshakeTimeout.cancel();
+			this.handshakeTimeout = null;
+		}
+		super.handlerRemoved0(ctx);
+	}
 
-			if (Config.shouldLog()) LOGGER.info("sniffer {} result: {}", sniffer.getName(), result);
-			switch (result.state)
+	/**
+	 * The cumulated bytes are given to the same sniffer on each read, which resumes from its parse progress,
+	 * so a handshake fragmented into many segments is not parsed again and again
+	 */
+	@Override
+	protected void decode(ChannelHandlerContext ctx, ByteBuf byteBuf, List<Object> list)
+	{
+		if (this.sniffer == null)
+		{
+			this.sniffer = this.chooseSniffer(byteBuf);
+			if (this.sniffer == null)
 			{
-				case ACCEPT:
-					if (Config.shouldLog()) LOGGER.info("sniffer {} accept, address: {}", sniffer.getName(), result.address);
-					Optional<RouteResult> target = Optional.ofNullable(result.address).
-							map(address -> {
-								// forge client stuff
-								return address.withHostname(StringUtils.substringBefore(address.hostname, "\0"));
-							}).
-							map(this::routeFor);
-					if (target.isPresent())
+				return;
+			}
+		}
+
+		SniffingResult result = this.sniffer.sniff(byteBuf);
+		if (this.config.isLoggingEnabled()) LOGGER.info("sniffer {} result: {}", this.sniffer.getName(), result);
+		switch (result.state)
+		{
+			case ACCEPT:
+				CompiledRoute route = result.handshake != null ? this.routeFor(result.handshake) : null;
+				if (route != null)
+				{
+					if (route.ipFilter != null && !this.isClientAllowed(ctx, route.ipFilter))
 					{
-						this.startForwarding(ctx, byteBuf, target.get());
+						byteBuf.skipBytes(byteBuf.readableBytes());
+						ctx.channel().close();
 						return;
 					}
-					else
+					if (result.handshake.intent == Handshake.Intent.STATUS && route.statusCache != null && this.serveCachedStatus(ctx, byteBuf, route.statusCache))
 					{
-						if (Config.shouldLog()) LOGGER.info("no valid route for address {}", result.address);
-						iterator.remove();
-						routeFailed = true;
-						break loopLabel;
+						return;
 					}
-				case REJECT:
-					LOGGER.debug("sniffer {} rejects", sniffer.getName());
-					iterator.remove();
-					break;
-			}
+					this.startForwarding(ctx, byteBuf, route);
+					return;
+				}
+				if (this.config.isLoggingEnabled()) LOGGER.info("no valid route for handshake {}, switch to vanilla", result.handshake);
+				break;
+			case REJECT:
+				if (this.config.isLoggingEnabled()) LOGGER.info("sniffer {} rejects, switch to vanilla", this.sniffer.getName());
+				break;
+			case INCOMPLETE:
+				if (byteBuf.readableBytes() > this.sniffer.getMaxSize())
+				{
+					if (this.config.isLoggingEnabled()) LOGGER.warn("No handshake from client {} within {} bytes, disconnecting", ctx.channel().remoteAddress(), this.sniffer.getMaxSize());
+					byteBuf.skipBytes(byteBuf.readableBytes());
+					ctx.channel().close();
+				}
+				return;
 		}
 
-		if (this.sniffers.isEmpty() || routeFailed)
+		this.restoreToVanilla.accept(ctx);
+		ctx.pipeline().fireChannelRead(byteBuf.retain());
+	}
+
+	/**
+	 * Checked against the real client address from the PROXY protocol header if there is one
+	 */
+	private boolean isClientAllowed(ChannelHandlerContext ctx, CidrFilter ipFilter)
+	{
+		InetSocketAddress clientAddr = this.realClientAddress != null ? this.realClientAddress : (InetSocketAddress)ctx.channel().remoteAddress();
+		if (ipFilter.allows(clientAddr.getAddress()))
 		{
-			if (Config.shouldLog()) LOGGER.info("{}, switch to vanilla", this.sniffers.isEmpty() ? "no available sniffer" : "route failed");
-			this.restoreToVanilla.accept(ctx);
-			ctx.pipeline().fireChannelRead(byteBuf.retain());
+			return true;
 		}
-		else
+		if (this.config.isLoggingEnabled()) LOGGER.info("Client {} is not allowed by the route, disconnecting", clientAddr.getAddress());
+		return false;
+	}
+
+	/**
+	 * The first byte tells which kind of handshake it is. A few first bytes are valid Minecraft packet sizes too,
+	 * so the second byte is checked as well, which is always the packet id 0x00 for a Minecraft handshake.
+	 * The legacy ping byte 0xFE also starts every modern handshake of 254 bytes or more, e.g. with BungeeCord IP forwarding
+	 *
+	 * @return null if more bytes are needed
+	 */
+	@Nullable
+	private Sniffer chooseSniffer(ByteBuf byteBuf)
+	{
+		RouteTable routeTable = this.config.getRouteTable();
+		int first = byteBuf.getUnsignedByte(byteBuf.readerIndex());
+		if (first == LegacyHandshakeSniffer.PACKET_ID && LegacyHandshakeSniffer.isLegacyPing(byteBuf))
 		{
-			if (Config.shouldLog()) LOGGER.info("all remaining sniffers say packet incomplete, waiting for new messages");
+			return new LegacyHandshakeSniffer();
 		}
+		boolean maybeTls = first == TlsSniffer.CONTENT_TYPE_HANDSHAKE && routeTable.hasRoutes(RouteType.TLS);
+		boolean maybeHttp = HttpHostSniffer.isMethodChar(first) && routeTable.hasRoutes(RouteType.HTTP);
+		if (maybeTls || maybeHttp)
+		{
+			if (byteBuf.readableBytes() < 2)
+			{
+				return null;
+			}
+			int second = byteBuf.getUnsignedByte(byteBuf.readerIndex() + 1);
+			if (maybeTls && second == TlsSniffer.MAJOR_VERSION)
+			{
+				return new TlsSniffer();
+			}
+			if (maybeHttp && HttpHostSniffer.isMethodChar(second))
+			{
+				return new HttpHostSniffer();
+			}
+		}
+		return new ModernHandshakeSniffer(this.config.isLoggingEnabled());
 	}
 
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
 	{
-		if (Config.shouldLog()) LOGGER.error("handler error: {}", cause.toString());
+		if (this.config.isLoggingEnabled()) LOGGER.error("handler error: {}", cause.toString());
 		ctx.channel().close();
 	}
 
 	@Nullable
-	private RouteResult routeFor(Address address)
+	private CompiledRoute routeFor(Handshake handshake)
+	{
+		Address address = handshake.address;
+		String hostname = StringUtils.substringBefore(address.hostname, "\0");  // forge client stuff
+		int port = address.port != null ? address.port : -1;
+		return this.config.getRouteTable().lookup(handshake.type, hostname, port, handshake.intent, handshake.protocolVersion);
+	}
+
+	/**
+	 * @return false if there's no cached status yet, then the ping should be forwarded to the backend
+	 */
+	private boolean serveCachedStatus(ChannelHandlerContext ctx, ByteBuf byteBuf, StatusCache statusCache)
 	{
-		String hostname = StringUtils.removeEnd(address.hostname, ".");
-		Config config = Config.get();
-		for (Route route : config.routes)
+		StatusCache.Status status = statusCache.get(this.config);
+		if (status == null)
 		{
-			if ("minecraft".equals(route.type))
-			{
-				boolean found = false;
-				for (String matchStr : route.allMatches())
-				{
-					Address match = Address.of(matchStr);
-					boolean hostnameOk = StringUtils.removeEnd(match.hostname, ".").equals(hostname);
-					boolean portOk = match.port == null || match.port.equals(address.port);
-					if (hostnameOk && portOk)
-					{
-						found = true;
-						break;
-					}
-				}
-				if (found)
-				{
-					Address finalAddress = Address.of(route.target);
-					if (finalAddress.port == null)
-					{
-						Address srv = SrvResolver.resolveSrv(finalAddress.hostname);
-						finalAddress = srv != null ? srv : finalAddress.withPort(25565);
-					}
-					return new RouteResult(route, finalAddress);
-				}
-			}
+			return false;
 		}
-		return null;
+		if (this.config.isLoggingEnabled()) LOGGER.info("Answering status ping from client {} with the cached status", ctx.channel().remoteAddress());
+
+		if (this.sniffer instanceof LegacyHandshakeSniffer)
+		{
+			byteBuf.skipBytes(byteBuf.readableBytes());
+			ctx.writeAndFlush(status.getLegacyResponse()).addListener(ChannelFutureListener.CLOSE);
+			return true;
+		}
+		ctx.pipeline().replace(this, "distributary_status", new StatusResponder(this.config, status));
+		// a slice of its own, so the bytes are not handed over again when this decoder is removed
+		ctx.pipeline().fireChannelRead(byteBuf.readRetainedSlice(byteBuf.readableBytes()));
+		return true;
 	}
 
 	@SuppressWarnings("Convert2Diamond")  // java8 needs it
-	private void startForwarding(ChannelHandlerContext ctx, ByteBuf initBuf, RouteResult routeResult)
+	private void startForwarding(ChannelHandlerContext ctx, ByteBuf initBuf, CompiledRoute route)
 	{
-		// TODO: mimic
-		Address targetAddr = routeResult.address;
+		Config config = this.config;
 		Channel clientChannel = ctx.channel();
-		if (Config.shouldLog()) LOGGER.info("Starting forwarding to {} for client {}", targetAddr, clientChannel.remoteAddress());
-
-		Bootstrap bootstrap = new Bootstrap();
-		bootstrap.group(clientChannel.eventLoop()).
-				channel(clientChannel.getClass()).
-				option(ChannelOption.TCP_NODELAY, true).
-				handler(new ChannelInitializer<Channel>()
-				{
-					@Override
-					protected void initChannel(@NotNull Channel channel)
-					{
-						channel.pipeline().addLast(new ForwardHandler("target", clientChannel));
-					}
-				});
+		if (this.config.isLoggingEnabled()) LOGGER.info("Starting forwarding with route {} for client {}", route, clientChannel.remoteAddress());
 
 		final long t = System.nanoTime();
-		ChannelFuture f = bootstrap.connect(targetAddr.hostname, targetAddr.port);
+		Future<UpstreamConnector.Connection> f = UpstreamConnector.connect(config, clientChannel, route.getConnectCandidates(), route.socketProfile, backend -> new ChannelInitializer<Channel>()
+		{
+			@Override
+			protected void initChannel(@NotNull Channel channel)
+			{
+				if (route.route.splice)
+				{
+					SpliceForwarder.prepare(channel);
+				}
+				channel.config().setWriteBufferWaterMark(route.writeBufferWaterMark);
+				if (route.socketProfile != null)
+				{
+					SocketProfiles.apply(channel, route.socketProfile);
+				}
+				channel.pipeline().addLast(new ForwardHandler(config, "target", clientChannel, backend));
+			}
+		});
 
-		PacketHolder packetHolder = new PacketHolder(1024);  // Minecraft handshake should never longer than 1KiB
+		// the client bytes keep being held here while connecting, retrying and failing over
+		// reading from the client is paused meanwhile, so the holder never holds more than the sniffed bytes,
+		// no matter how much the client sends without waiting for a reply, e.g. an HTTP request body
+		clientChannel.config().setAutoRead(false);
+		PacketHolder packetHolder = new PacketHolder(this.config, initBuf.readableBytes());
 
-		f.addListener((ChannelFutureListener)future -> {
-			Channel targetChannel = future.channel();
-			ByteBuf heldClientBuf = packetHolder.export(ctx);
-			if (Config.shouldLog())
+		Timeout connectTimeout = TimeoutWheel.get().newTimeout(timeout -> f.cancel(false), config.connect_total_timeout_ms, TimeUnit.MILLISECONDS);
+		f.addListener((FutureListener<UpstreamConnector.Connection>)future -> {
+			connectTimeout.cancel();
+			if (future.isCancelled() && this.config.isLoggingEnabled())
+			{
+				LOGGER.warn("Failed to connect to any backend of route {} within {}ms", route, config.connect_total_timeout_ms);
+			}
+			Channel targetChannel = future.isSuccess() ? future.getNow().channel : null;
+			ByteBuf heldClientBuf = packetHolder.export();
+			if (this.config.isLoggingEnabled())
 			{
 				LOGGER.info(
 						"Connected to target {}, cost {}ms, ok = {}, held buf size = {}",
-						targetAddr, String.format("%.1f", (System.nanoTime() - t) / 1e6),
+						targetChannel != null ? targetChannel.remoteAddress() : null, String.format("%.1f", (System.nanoTime() - t) / 1e6),
 						future.isSuccess(), heldClientBuf != null ? heldClientBuf.readableBytes() : "null"
 				);
 			}
 			if (!clientChannel.isActive())
 			{
-				targetChannel.close();
+				if (targetChannel != null)
+				{
+					targetChannel.close();
+				}
+				if (heldClientBuf != null)
+				{
+					heldClientBuf.release();
+				}
 				return;
 			}
 
 			//noinspection LoopStatementThatDoesntLoop
-			while (future.isSuccess() && heldClientBuf != null)
+			while (targetChannel != null && heldClientBuf != null)
 			{
-				if (routeResult.route.haproxy_protocol)
+				if (route.route.haproxy_protocol)
 				{
-					if (Config.shouldLog()) LOGGER.info("Sending HAProxy proxy protocol v{}", routeResult.route.haproxy_protocol_version);
-					HAProxyMessage haProxyMessage = this.makeProxyProtocolHeader(clientChannel, targetChannel, routeResult);
-					if (haProxyMessage == null)
+					if (this.config.isLoggingEnabled()) LOGGER.info("Sending HAProxy proxy protocol v{}", route.route.haproxy_protocol_version);
+					ByteBuf proxyHeader = this.makeProxyProtocolHeader(clientChannel, targetChannel, route.route);
+					if (proxyHeader == null)
 					{
-						if (Config.shouldLog()) LOGGER.warn("Failed to create a HAProxy message, disconnecting");
+						if (this.config.isLoggingEnabled()) LOGGER.warn("Failed to create a HAProxy message, disconnecting");
 						break;
 					}
-					targetChannel.pipeline().addLast(HAProxyMessageEncoder.INSTANCE);
-					targetChannel.writeAndFlush(haProxyMessage);
-					targetChannel.pipeline().remove(HAProxyMessageEncoder.INSTANCE);
+					// not flushed here, it goes out in the same flush as the held client bytes below
+					targetChannel.write(proxyHeader).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+				}
+				// legacy pings are forwarded as they are
+				if (route.handshakeRewriter != null && this.sniffer instanceof ModernHandshakeSniffer)
+				{
+					ByteBuf rewritten = route.handshakeRewriter.rewrite(clientChannel.alloc(), heldClientBuf);
+					if (rewritten == heldClientBuf && this.config.isLoggingEnabled())
+					{
+						LOGGER.warn("Hostname of client {} is too long for the mimic of route {}, forwarding the handshake as it is", clientChannel.remoteAddress(), route.route);
+					}
+					heldClientBuf = rewritten;
 				}
 
+				clientChannel.config().setWriteBufferWaterMark(route.writeBufferWaterMark);
+				if (route.socketProfile != null)
+				{
+					SocketProfiles.apply(clientChannel, route.socketProfile);
+				}
 				ctx.pipeline().remove(packetHolder);
-				ctx.pipeline().addLast(new ForwardHandler("client", targetChannel));
-				ctx.pipeline().fireChannelRead(heldClientBuf);
+				ForwardHandler clientHandler = new ForwardHandler(this.config, "client", targetChannel);
+				ctx.pipeline().addLast(clientHandler);
+				// the forward handler flushes on read complete
+				ctx.pipeline().fireChannelRead(heldClientBuf).fireChannelReadComplete();
+				clientChannel.config().setAutoRead(targetChannel.isWritable());
+
+				ForwardHandler targetHandler = targetChannel.pipeline().get(ForwardHandler.class);
+				boolean splice = false;
+				if (route.route.splice)
+				{
+					splice = targetHandler != null && SpliceForwarder.isSupported(clientChannel, targetChannel);
+					if (splice)
+					{
+						if (this.config.isLoggingEnabled()) LOGGER.info("Forwarding with splice");
+						SpliceForwarder.start(clientChannel, clientHandler, targetChannel, targetHandler);
+					}
+					else
+					{
+						if (this.config.isLoggingEnabled()) LOGGER.info("Splice is not supported for {} and {}, forwarding normally", clientChannel.getClass().getSimpleName(), targetChannel.getClass().getSimpleName());
+					}
+				}
+				// spliced bytes never go through the forward handlers, so their traffic can't be seen by the idle monitor.
+				// Dead peers of a spliced pair are left to TCP keepalive, see the socket profiles
+				if (targetHandler != null && !splice)
+				{
+					IdleMonitor.start(this.config, clientChannel, clientHandler, targetChannel, targetHandler);
+				}
 
 				return;
 			}
 
 			clientChannel.close();
-			targetChannel.close();
+			if (targetChannel != null)
+			{
+				targetChannel.close();
+			}
+			if (heldClientBuf != null)
+			{
+				heldClientBuf.release();
+			}
 		});
 
 		ctx.pipeline().remove(this);
 		ctx.pipeline().addLast(packetHolder);
-		ctx.pipeline().fireChannelRead(initBuf);
+		// the holder takes a slice that shares the cumulated bytes, and this decoder releases its own reference on removal
+		ctx.pipeline().fireChannelRead(initBuf.readRetainedSlice(initBuf.readableBytes()));
 	}
 
 	@Nullable
-	private HAProxyMessage makeProxyProtocolHeader(Channel clientChannel, Channel targetChannel, RouteResult routeResult)
+	private ByteBuf makeProxyProtocolHeader(Channel clientChannel, Channel targetChannel, Route route)
 	{
 		InetSocketAddress clientAddr = (InetSocketAddress)clientChannel.remoteAddress();
 		InetSocketAddress targetAddr = (InetSocketAddress)targetChannel.remoteAddress();
@@ -251,29 +400,88 @@ public class DistributaryPacketHandler extends ByteToMessageDecoder
 			clientAddr = this.realClientAddress;
 		}
 
-		HAProxyProxiedProtocol protocol;
-		if (clientAddr.getAddress() instanceof Inet4Address && targetAddr.getAddress() instanceof Inet4Address)
+		// the header follows the address family that the target connection actually uses,
+		// which might differ from the client's one since the target address is raced with happy eyeballs
+		InetAddress clientInet = clientAddr.getAddress();
+		InetAddress targetInet = targetAddr.getAddress();
+		if (targetInet instanceof Inet4Address)
 		{
-			protocol = HAProxyProxiedProtocol.TCP4;
+			InetAddress clientInet4 = toInet4(clientInet);
+			if (clientInet4 != null)
+			{
+				clientInet = clientInet4;
+			}
+			else
+			{
+				// an IPv6 client cannot be described with TCP4
+				targetInet = toInet6((Inet4Address)targetInet);
+			}
 		}
-		else if (clientAddr.getAddress() instanceof Inet6Address && targetAddr.getAddress() instanceof Inet6Address)
+		else if (targetInet instanceof Inet6Address)
 		{
-			protocol = HAProxyProxiedProtocol.TCP6;
+			if (clientInet instanceof Inet4Address)
+			{
+				clientInet = toInet6((Inet4Address)clientInet);
+			}
 		}
 		else
 		{
-			if (Config.shouldLog()) LOGGER.warn("Mixed use of IPv4 and IPv6, cannot create a HAProxy protocol header. clientAddr: {}, targetAddr: {}", clientAddr, targetAddr);
+			if (this.config.isLoggingEnabled()) LOGGER.warn("Unknown address type, cannot create a HAProxy protocol header. clientAddr: {}, targetAddr: {}", clientAddr, targetAddr);
+			return null;
+		}
+
+		return ProxyProtocolHeader.encode(targetChannel.alloc(), route.haproxy_protocol_version, clientInet, clientAddr.getPort(), targetInet, targetAddr.getPort());
+	}
+
+	/**
+	 * @return the address itself if it's IPv4, the embedded IPv4 address if it's an IPv4-mapped IPv6 address, otherwise null
+	 */
+	@Nullable
+	private static Inet4Address toInet4(InetAddress address)
+	{
+		if (address instanceof Inet4Address)
+		{
+			return (Inet4Address)address;
+		}
+		byte[] bytes = address.getAddress();
+		for (int i = 0; i < 10; i++)
+		{
+			if (bytes[i] != 0)
+			{
+				return null;
+			}
+		}
+		if (bytes[10] != (byte)0xFF || bytes[11] != (byte)0xFF)
+		{
 			return null;
 		}
+		try
+		{
+			return (Inet4Address)InetAddress.getByAddress(Arrays.copyOfRange(bytes, 12, 16));
+		}
+		catch (UnknownHostException e)
+		{
+			throw new AssertionError(e);  // never happens for 4 bytes
+		}
+	}
 
-		return new HAProxyMessage(
-				routeResult.route.haproxy_protocol_version == 1 ? HAProxyProtocolVersion.V1 : HAProxyProtocolVersion.V2,
-				HAProxyCommand.PROXY,
-				protocol,
-				clientAddr.getAddress().getHostAddress(),
-				targetAddr.getAddress().getHostAddress(),
-				clientAddr.getPort(),
-				targetAddr.getPort()
-		);
+	/**
+	 * @return the IPv4-mapped IPv6 address ({@code ::ffff:a.b.c.d}) of the given IPv4 address
+	 */
+	private static Inet6Address toInet6(Inet4Address address)
+	{
+		byte[] bytes = new byte[16];
+		bytes[10] = (byte)0xFF;
+		bytes[11] = (byte)0xFF;
+		System.arraycopy(address.getAddress(), 0, bytes, 12, 4);
+		try
+		{
+			// InetAddress.getByAddress() would turn it back into an Inet4Address
+			return Inet6Address.getByAddress(null, bytes, null);
+		}
+		catch (UnknownHostException e)
+		{
+			throw new AssertionError(e);  // never happens for 16 bytes
+		}
 	}
 }
@@ -27,9 +27,11 @@ import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.network.upstream.Backend;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.SocketException;
 
@@ -37,14 +39,36 @@ class ForwardHandler extends ChannelInboundHandlerAdapter
 {
 	private static final Logger LOGGER = LogManager.getLogger();
 
+	private final Config config;
 	private final String logName;
 	private final Channel targetChannel;
+	@Nullable private final Backend backend;
 	private long byteCount;
+	private boolean spliced = false;
+	private boolean counted = false;
+	// raised on reads, cleared by the IdleMonitor on the timer thread
+	private volatile boolean traffic = false;
+	private final ChannelFutureListener writeListener = future -> {
+		if (!future.isSuccess())
+		{
+			this.flushAndClose();
+		}
+	};
+
+	public ForwardHandler(Config config, String logName, Channel targetChannel)
+	{
+		this(config, logName, targetChannel, null);
+	}
 
-	public ForwardHandler(String logName, Channel targetChannel)
+	/**
+	 * @param backend the backend this handler's channel is connected to, for tracking its active connections
+	 */
+	public ForwardHandler(Config config, String logName, Channel targetChannel, @Nullable Backend backend)
 	{
+		this.config = config;
 		this.logName = logName;
 		this.targetChannel = targetChannel;
+		this.backend = backend;
 		this.byteCount = 0;
 	}
 
@@ -56,28 +80,106 @@ class ForwardHandler extends ChannelInboundHandlerAdapter
 		}
 	}
 
+	/**
+	 * Reads of a burst are written without flushing, and get flushed together in {@link #channelReadComplete}
+	 */
 	@Override
 	public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg)
 	{
-		if (Config.shouldLog()) LOGGER.info("[{}] read {} bytes, forwarding", this.logName, ((ByteBuf)msg).readableBytes());
 		this.byteCount += ((ByteBuf)msg).readableBytes();
-		this.targetChannel.writeAndFlush(msg).addListener((ChannelFutureListener)future -> {
-			if (future.isSuccess())
-			{
-				ctx.read();
-			}
-			else
-			{
-				this.flushAndClose();
-			}
-		});
+		this.targetChannel.write(msg).addListener(this.writeListener);
+	}
+
+	/**
+	 * For channels whose bytes are spliced from now on, which don't go through {@link #channelRead} and can't be counted
+	 */
+	void markSpliced()
+	{
+		this.spliced = true;
+	}
+
+	@Override
+	public void channelReadComplete(@NotNull ChannelHandlerContext ctx)
+	{
+		this.targetChannel.flush();
+		this.markTraffic();
+		if (this.spliced)
+		{
+			SpliceForwarder.drainIfPeerClosed(ctx.channel(), this.targetChannel);
+		}
+	}
+
+	private void markTraffic()
+	{
+		// skip the volatile write when it's already raised, which is the common case for a busy connection
+		if (!this.traffic)
+		{
+			this.traffic = true;
+		}
+	}
+
+	/**
+	 * @return if there were reads since the last poll
+	 */
+	boolean pollTraffic()
+	{
+		if (this.traffic)
+		{
+			this.traffic = false;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The target channel is the only one writing to this channel, so it stops reading while this channel has
+	 * more than the high water mark of bytes queued, and the memory of a forwarding pair stays bounded
+	 * however slow one side is
+	 */
+	@Override
+	public void channelWritabilityChanged(@NotNull ChannelHandlerContext ctx) throws Exception
+	{
+		boolean writable = ctx.channel().isWritable();
+		if (this.config.isLoggingEnabled()) LOGGER.debug("[{}] writable: {}, {} reading from the other side", this.logName, writable, writable ? "resume" : "pause");
+		this.targetChannel.config().setAutoRead(writable);
+		super.channelWritabilityChanged(ctx);
+	}
+
+	private void countConnection()
+	{
+		if (this.backend != null && !this.counted)
+		{
+			this.counted = true;
+			this.backend.onConnectionOpened();
+		}
+	}
+
+	@Override
+	public void handlerAdded(@NotNull ChannelHandlerContext ctx)
+	{
+		// a pooled channel is already active when the handler gets added
+		if (ctx.channel().isActive())
+		{
+			this.countConnection();
+		}
+	}
+
+	@Override
+	public void channelActive(@NotNull ChannelHandlerContext ctx) throws Exception
+	{
+		this.countConnection();
+		super.channelActive(ctx);
 	}
 
 	@Override
 	public void channelInactive(@NotNull ChannelHandlerContext ctx)
 	{
+		if (this.backend != null && this.counted)
+		{
+			this.backend.onConnectionClosed();
+		}
 		this.flushAndClose();
-		if (Config.shouldLog()) LOGGER.info("[{}] forwarder disconnected, forwarded {} bytes", this.logName, this.byteCount);
+		if (this.config.isLoggingEnabled()) LOGGER.info("[{}] forwarder disconnected, forwarded {} bytes{}", this.logName, this.byteCount, this.spliced ? " before splicing, spliced bytes are not counted" : "");
 	}
 
 	@Override
@@ -85,7 +187,7 @@ class ForwardHandler extends ChannelInboundHandlerAdapter
 	{
 		if (!(cause instanceof SocketException && "Connection reset".equals(cause.getMessage())))
 		{
-			if (Config.shouldLog()) LOGGER.error("[{}] forwarder error: {}", this.logName, cause);
+			if (this.config.isLoggingEnabled()) LOGGER.error("[{}] forwarder error: {}", this.logName, cause);
 		}
 		this.flushAndClose();
 	}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.utils.PacketUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Rewrites the hostname and port in the Minecraft handshake packet for the "mimic" of a route,
+ * so the backend sees the address it expects instead of the one the player connected with
+ * <p>
+ * Only the handshake packet is re-encoded. The bytes after it are kept as they are,
+ * and are joined with the new handshake in a composite buffer instead of being copied
+ */
+public class HandshakeRewriter
+{
+	// what vanilla servers accept, in chars
+	public static final int MAX_HOSTNAME_LENGTH = 255;
+
+	private final String hostnameString;
+	private final byte[] hostname;
+	@Nullable private final Integer port;
+
+	/**
+	 * @param mimic the address to put into the handshake. The port of the player's handshake is kept if it has no port
+	 */
+	public HandshakeRewriter(Address mimic)
+	{
+		this.hostnameString = mimic.hostname;
+		this.hostname = mimic.hostname.getBytes(StandardCharsets.UTF_8);
+		this.port = mimic.port;
+	}
+
+	/**
+	 * Anything after the first "\0" in the hostname, e.g. the Forge marker "\0FML3\0", is kept.
+	 * If the mimic hostname with that suffix is longer than {@link #MAX_HOSTNAME_LENGTH}, the backend would reject it,
+	 * so the handshake is left as it is
+	 *
+	 * @param buf the held client bytes starting with a complete handshake packet, whose ownership is taken
+	 * @return the bytes with the handshake rewritten, or the given buf itself if it's left as it is
+	 */
+	public ByteBuf rewrite(ByteBufAllocator alloc, ByteBuf buf)
+	{
+		// the handshake is already validated by the sniffer, so no bound checks here
+		int start = buf.readerIndex();
+		long packetSize = PacketUtils.peekVarInt(buf, start, buf.writerIndex());
+		int bodyStart = start + PacketUtils.varIntSize(packetSize);
+		int end = bodyStart + PacketUtils.varIntValue(packetSize);
+		int hostnameSizeIndex = bodyStart;
+		for (int i = 0; i < 2; i++)  // packet id, protocol version
+		{
+			hostnameSizeIndex += PacketUtils.varIntSize(PacketUtils.peekVarInt(buf, hostnameSizeIndex, end));
+		}
+		long hostnameSize = PacketUtils.peekVarInt(buf, hostnameSizeIndex, end);
+		int hostnameStart = hostnameSizeIndex + PacketUtils.varIntSize(hostnameSize);
+		int hostnameEnd = hostnameStart + PacketUtils.varIntValue(hostnameSize);
+		int suffixStart = buf.indexOf(hostnameStart, hostnameEnd, (byte)0);
+		if (suffixStart < 0)
+		{
+			suffixStart = hostnameEnd;
+		}
+		if (suffixStart < hostnameEnd && this.hostnameString.length() + buf.toString(suffixStart, hostnameEnd - suffixStart, StandardCharsets.UTF_8).length() > MAX_HOSTNAME_LENGTH)
+		{
+			return buf;
+		}
+		int port = this.port != null ? this.port : buf.getUnsignedShort(hostnameEnd);
+		int nextStateStart = hostnameEnd + 2;
+
+		int newHostnameSize = this.hostname.length + (hostnameEnd - suffixStart);
+		int newBodySize = (hostnameSizeIndex - bodyStart) + PacketUtils.getVarIntSize(newHostnameSize) + newHostnameSize + 2 + (end - nextStateStart);
+		ByteBuf handshake = alloc.buffer(PacketUtils.getVarIntSize(newBodySize) + newBodySize);
+		PacketUtils.writeVarInt(handshake, newBodySize);
+		handshake.writeBytes(buf, bodyStart, hostnameSizeIndex - bodyStart);
+		PacketUtils.writeVarInt(handshake, newHostnameSize);
+		handshake.writeBytes(this.hostname);
+		handshake.writeBytes(buf, suffixStart, hostnameEnd - suffixStart);
+		handshake.writeShort(port);
+		handshake.writeBytes(buf, nextStateStart, end - nextStateStart);
+
+		if (end == buf.writerIndex())
+		{
+			buf.release();
+			return handshake;
+		}
+		ByteBuf rest = buf.retainedSlice(end, buf.writerIndex() - end);
+		buf.release();
+		return alloc.compositeBuffer(2).addComponents(true, handshake, rest);
+	}
+}
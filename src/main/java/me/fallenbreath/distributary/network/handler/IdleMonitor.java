@@ -0,0 +1,115 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.handler;
+
+import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.network.TimeoutWheel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes a forwarding pair after no byte has gone through in either direction for the idle timeout
+ * <p>
+ * Instead of timestamping every read, the forward handlers only raise their traffic flag, and this monitor checks and clears
+ * the flags every half of the idle timeout, on the {@link TimeoutWheel}. The pair is closed after 2 checks without traffic,
+ * i.e. after 1 to 1.5 times of the idle timeout
+ */
+class IdleMonitor implements TimerTask
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int IDLE_CHECKS_TO_CLOSE = 2;
+
+	private final Config config;
+	private final Channel clientChannel;
+	private final ForwardHandler clientHandler;
+	private final Channel targetChannel;
+	private final ForwardHandler targetHandler;
+	private final long checkIntervalMs;
+	private int idleChecks = 0;
+	@Nullable private volatile Timeout timeout = null;
+
+	private IdleMonitor(Config config, Channel clientChannel, ForwardHandler clientHandler, Channel targetChannel, ForwardHandler targetHandler)
+	{
+		this.config = config;
+		this.clientChannel = clientChannel;
+		this.clientHandler = clientHandler;
+		this.targetChannel = targetChannel;
+		this.targetHandler = targetHandler;
+		this.checkIntervalMs = Math.max(config.idle_timeout_ms / IDLE_CHECKS_TO_CLOSE, 1);
+	}
+
+	/**
+	 * Does nothing if the idle timeout is disabled in the config
+	 */
+	public static void start(Config config, Channel clientChannel, ForwardHandler clientHandler, Channel targetChannel, ForwardHandler targetHandler)
+	{
+		if (config.idle_timeout_ms > 0)
+		{
+			IdleMonitor monitor = new IdleMonitor(config, clientChannel, clientHandler, targetChannel, targetHandler);
+			monitor.schedule();
+			clientChannel.closeFuture().addListener(f -> monitor.stop());
+		}
+	}
+
+	private void schedule()
+	{
+		this.timeout = TimeoutWheel.get().newTimeout(this, this.checkIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	private void stop()
+	{
+		Timeout timeout = this.timeout;
+		if (timeout != null)
+		{
+			timeout.cancel();
+		}
+	}
+
+	@Override
+	public void run(Timeout timeout)
+	{
+		if (!this.clientChannel.isActive() || !this.targetChannel.isActive())
+		{
+			return;
+		}
+
+		boolean clientTraffic = this.clientHandler.pollTraffic();
+		boolean targetTraffic = this.targetHandler.pollTraffic();
+		if (clientTraffic || targetTraffic)
+		{
+			this.idleChecks = 0;
+		}
+		else if (++this.idleChecks >= IDLE_CHECKS_TO_CLOSE)
+		{
+			if (this.config.isLoggingEnabled()) LOGGER.info("Closing idle forwarding of client {}, no traffic for {}ms", this.clientChannel.remoteAddress(), this.config.idle_timeout_ms);
+			this.clientChannel.close();
+			this.targetChannel.close();
+			return;
+		}
+		this.schedule();
+	}
+}
@@ -30,57 +30,77 @@ import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * Holds the client bytes while the target is being connected
+ * <p>
+ * The received buffers are kept as they are, and handed over without copying on {@link #export}.
+ * A single buffer, which is the common case, is not even wrapped into a composite buffer
+ */
 class PacketHolder extends ChannelInboundHandlerAdapter
 {
 	private static final Logger LOGGER = LogManager.getLogger();
 
+	private final Config config;
 	private final int maxSize;
-	private CompositeByteBuf compositeByteBuf;
+	@Nullable private ByteBuf held = null;
 
-	public PacketHolder(int maxSize)
+	public PacketHolder(Config config, int maxSize)
 	{
+		this.config = config;
 		this.maxSize = maxSize;
 	}
 
-	@Override
-	public void handlerAdded(ChannelHandlerContext ctx)
-	{
-		this.compositeByteBuf = ctx.alloc().compositeBuffer();
-	}
-
 	@Override
 	public void handlerRemoved(ChannelHandlerContext ctx)
 	{
-		this.compositeByteBuf.release();
-		this.compositeByteBuf = null;
+		if (this.held != null)
+		{
+			this.held.release();
+			this.held = null;
+		}
 	}
 
+	/**
+	 * Takes the ownership of the message
+	 */
 	@Override
 	public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg)
 	{
-		int sizeToBe = this.compositeByteBuf.readableBytes() + ((ByteBuf)msg).readableBytes();
+		ByteBuf buf = (ByteBuf)msg;
+		int sizeToBe = (this.held != null ? this.held.readableBytes() : 0) + buf.readableBytes();
 		if (sizeToBe > this.maxSize)
 		{
-			if (Config.shouldLog()) LOGGER.error("Too many bytes to hold ({} / {}) bytes, disconnect now", sizeToBe, this.maxSize);
+			if (this.config.isLoggingEnabled()) LOGGER.error("Too many bytes to hold ({} / {}) bytes, disconnect now", sizeToBe, this.maxSize);
+			buf.release();
 			ctx.channel().close();
+			return;
+		}
+
+		if (this.config.isLoggingEnabled()) LOGGER.info("[holder] read {} bytes, holding", buf.readableBytes());
+		if (this.held == null)
+		{
+			this.held = buf;
+		}
+		else if (this.held instanceof CompositeByteBuf)
+		{
+			((CompositeByteBuf)this.held).addComponent(true, buf);
 		}
 		else
 		{
-			if (Config.shouldLog()) LOGGER.info("[holder] read {} bytes, holding", ((ByteBuf)msg).readableBytes());
-			this.compositeByteBuf.addComponent(true, ((ByteBuf)msg).retain());
+			this.held = ctx.alloc().compositeBuffer().addComponents(true, this.held, buf);
 		}
 	}
 
+	/**
+	 * Hands over the held bytes, whose ownership goes to the caller
+	 *
+	 * @return null if nothing is held
+	 */
 	@Nullable
-	public ByteBuf export(ChannelHandlerContext ctx)
+	public ByteBuf export()
 	{
-		if (this.compositeByteBuf == null)
-		{
-			return null;
-		}
-		ByteBuf output = ctx.alloc().buffer(this.compositeByteBuf.readableBytes());
-		output.writeBytes(this.compositeByteBuf);
-		this.compositeByteBuf.clear();
+		ByteBuf output = this.held;
+		this.held = null;
 		return output;
 	}
 }
@@ -0,0 +1,78 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * Encodes the HAProxy PROXY protocol header of a TCP connection directly into a buffer,
+ * so it can be written together with the first client bytes, without adding an encoder to the target pipeline
+ * <p>
+ * Reference: <a href="https://www.haproxy.org/download/1.8/doc/proxy-protocol.txt">proxy-protocol.txt</a>
+ */
+public final class ProxyProtocolHeader
+{
+	private static final byte[] V2_SIGNATURE = {0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A};
+	private static final int V2_VERSION_COMMAND_PROXY = 0x21;
+	private static final int V2_TCP4 = 0x11;
+	private static final int V2_TCP6 = 0x21;
+
+	private ProxyProtocolHeader()
+	{
+	}
+
+	/**
+	 * @param source the client address, should be the same address family as the destination
+	 * @param destination the target address
+	 */
+	public static ByteBuf encode(ByteBufAllocator alloc, int version, InetAddress source, int sourcePort, InetAddress destination, int destinationPort)
+	{
+		boolean ipv4 = source instanceof Inet4Address;
+		if (version == 1)
+		{
+			String header = "PROXY " + (ipv4 ? "TCP4 " : "TCP6 ") +
+					source.getHostAddress() + " " + destination.getHostAddress() + " " +
+					sourcePort + " " + destinationPort + "\r\n";
+			ByteBuf buf = alloc.buffer(header.length());
+			ByteBufUtil.writeAscii(buf, header);
+			return buf;
+		}
+
+		byte[] sourceBytes = source.getAddress();
+		byte[] destinationBytes = destination.getAddress();
+		int addressSize = sourceBytes.length + destinationBytes.length + 4;
+		ByteBuf buf = alloc.buffer(V2_SIGNATURE.length + 4 + addressSize);
+		buf.writeBytes(V2_SIGNATURE);
+		buf.writeByte(V2_VERSION_COMMAND_PROXY);
+		buf.writeByte(ipv4 ? V2_TCP4 : V2_TCP6);
+		buf.writeShort(addressSize);
+		buf.writeBytes(sourceBytes);
+		buf.writeBytes(destinationBytes);
+		buf.writeShort(sourcePort);
+		buf.writeShort(destinationPort);
+		return buf;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.AbstractEpollStreamChannel;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.unix.FileDescriptor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import me.fallenbreath.distributary.network.ReconfigurableRecvByteBufAllocator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Moves the bytes between a pair of epoll channels with splice(2), so they never get copied into the JVM
+ * <p>
+ * Netty only supports splicing between channels in the same event loop and in {@link EpollMode#LEVEL_TRIGGERED} mode,
+ * while channels are edge-triggered by default, and the mode can only be changed when the channel is not registered.
+ * So both channels are deregistered, switched and registered again before the splicing starts
+ * <p>
+ * Each direction is spliced with one long-running splice task. Bytes read before the task starts
+ * go through the {@link ForwardHandler} in the pipeline as usual, which also keeps handling the closing of the channels.
+ * Netty doesn't tell how many bytes a splice task has moved until it's done, so spliced bytes are not counted
+ * <p>
+ * Epoll classes are only referenced in here, so the class won't be loaded on platforms without them
+ */
+class SpliceForwarder
+{
+	private static final String EPOLL_SOCKET_CHANNEL_CLASS = "io.netty.channel.epoll.EpollSocketChannel";
+	// bytes moved by a single splice(2) call
+	private static final int SPLICE_SIZE = 64 * 1024;
+	// tcp_states.h
+	private static final int TCP_CLOSE_WAIT = 8;
+
+	/**
+	 * splice(2) moves up to {@link io.netty.channel.RecvByteBufAllocator.Handle#guess} bytes at a time.
+	 * With the default adaptive allocator the guess shrinks to its minimum of 64 bytes quickly,
+	 * since spliced bytes are never recorded as read bytes, so the guess needs to be fixed when the splicing starts
+	 * <p>
+	 * Should be called before the first read of the channel
+	 */
+	public static void prepare(Channel channel)
+	{
+		if (channel.getClass().getName().equals(EPOLL_SOCKET_CHANNEL_CLASS))
+		{
+			ReconfigurableRecvByteBufAllocator.install(channel);
+		}
+	}
+
+	public static boolean isSupported(Channel a, Channel b)
+	{
+		return isPrepared(a) && isPrepared(b) && a.eventLoop() == b.eventLoop();
+	}
+
+	private static boolean isPrepared(Channel channel)
+	{
+		return channel.getClass().getName().equals(EPOLL_SOCKET_CHANNEL_CLASS) && ReconfigurableRecvByteBufAllocator.of(channel) != null;
+	}
+
+	/**
+	 * Should be called in the event loop of the channels, after the forward handlers are installed,
+	 * and only if {@link #isSupported} returns true
+	 */
+	public static void start(Channel clientChannel, ForwardHandler clientHandler, Channel targetChannel, ForwardHandler targetHandler)
+	{
+		AbstractEpollStreamChannel client = (AbstractEpollStreamChannel)clientChannel;
+		AbstractEpollStreamChannel target = (AbstractEpollStreamChannel)targetChannel;
+		switchToLevelTriggered(client).addListener(f1 -> switchToLevelTriggered(target).addListener(f2 -> {
+			if (f1.isSuccess() && f2.isSuccess())
+			{
+				Objects.requireNonNull(ReconfigurableRecvByteBufAllocator.of(client)).setFixedGuess(SPLICE_SIZE);
+				Objects.requireNonNull(ReconfigurableRecvByteBufAllocator.of(target)).setFixedGuess(SPLICE_SIZE);
+				clientHandler.markSpliced();
+				targetHandler.markSpliced();
+				splice(client, target);
+				splice(target, client);
+			}
+			else
+			{
+				client.close();
+				target.close();
+			}
+		}));
+	}
+
+	/**
+	 * Netty doesn't notice the end of the stream of a channel with a splice task, since it doesn't take a splice of 0 bytes as EOF,
+	 * so the TCP state is checked on every read complete instead. Once the FIN of the peer is received, all the remaining bytes
+	 * are already in the receive queue, so they are read and written out directly, after what's still pending in the pipe.
+	 * The channel is closed after everything is flushed, since closing it also closes its pipe
+	 * <p>
+	 * Should be called on read complete of a spliced channel
+	 */
+	public static void drainIfPeerClosed(Channel channel, Channel targetChannel)
+	{
+		if (!channel.isActive() || ((EpollSocketChannel)channel).tcpInfo().state() != TCP_CLOSE_WAIT)
+		{
+			return;
+		}
+		FileDescriptor fd = ((EpollSocketChannel)channel).fd();
+		try
+		{
+			for (;;)
+			{
+				ByteBuf buf = channel.alloc().directBuffer(SPLICE_SIZE);
+				ByteBuffer nioBuf = buf.internalNioBuffer(0, SPLICE_SIZE);
+				int n;
+				try
+				{
+					n = fd.read(nioBuf, nioBuf.position(), nioBuf.limit());
+				}
+				catch (IOException e)
+				{
+					buf.release();
+					throw e;
+				}
+				if (n <= 0)
+				{
+					buf.release();
+					if (n == 0)
+					{
+						// not the end yet, the next read complete will continue
+						targetChannel.flush();
+						return;
+					}
+					break;
+				}
+				targetChannel.write(buf.writerIndex(n));
+			}
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			return;
+		}
+		targetChannel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(f -> channel.close());
+	}
+
+	private static Future<Void> switchToLevelTriggered(AbstractEpollStreamChannel channel)
+	{
+		EventLoop eventLoop = channel.eventLoop();
+		if (channel.config().getEpollMode() == EpollMode.LEVEL_TRIGGERED)
+		{
+			return eventLoop.newSucceededFuture(null);
+		}
+
+		Promise<Void> promise = eventLoop.newPromise();
+		channel.deregister().addListener(deregisterFuture -> {
+			if (!deregisterFuture.isSuccess())
+			{
+				promise.tryFailure(deregisterFuture.cause());
+				return;
+			}
+			channel.config().setEpollMode(EpollMode.LEVEL_TRIGGERED);
+			eventLoop.register(channel).addListener(registerFuture -> {
+				if (registerFuture.isSuccess())
+				{
+					promise.trySuccess(null);
+				}
+				else
+				{
+					promise.tryFailure(registerFuture.cause());
+				}
+			});
+		});
+		return promise;
+	}
+
+	private static void splice(AbstractEpollStreamChannel from, AbstractEpollStreamChannel to)
+	{
+		if (!from.isActive() || !to.isActive())
+		{
+			return;
+		}
+		// the task only completes after moving this many bytes, or when it fails
+		ChannelFuture future = from.spliceTo(to, Integer.MAX_VALUE);
+		future.addListener(f -> {
+			if (f.isSuccess())
+			{
+				splice(from, to);
+			}
+			else
+			{
+				// e.g. the other side is gone, the forward handlers close the pair
+				from.close();
+			}
+		});
+	}
+}
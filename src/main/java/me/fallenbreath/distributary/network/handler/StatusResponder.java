@@ -0,0 +1,159 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.Timeout;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.network.TimeoutWheel;
+import me.fallenbreath.distributary.network.upstream.StatusCache;
+import me.fallenbreath.distributary.utils.PacketUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers a server list ping with a cached status, in place of the backend
+ * <p>
+ * The modern ping goes: handshake, status request, status response, ping request, pong response, then disconnect
+ */
+class StatusResponder extends ByteToMessageDecoder
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int STATUS_REQUEST_PACKET_ID = 0x00;
+	private static final int PING_REQUEST_PACKET_ID = 0x01;
+	// the largest packet expected here is the ping request, whose payload is a long
+	private static final int MAX_PACKET_SIZE = 1 + 8;
+	// same as the vanilla read timeout
+	private static final int TIMEOUT_MS = 30000;
+
+	private final Config config;
+	private final StatusCache.Status status;
+	private State state = State.HANDSHAKE;
+	private Timeout timeout = null;
+
+	StatusResponder(Config config, StatusCache.Status status)
+	{
+		this.config = config;
+		this.status = status;
+	}
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception
+	{
+		super.handlerAdded(ctx);
+		this.timeout = TimeoutWheel.get().newTimeout(timeout -> ctx.channel().close(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception
+	{
+		this.timeout.cancel();
+		super.handlerRemoved0(ctx);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception
+	{
+		this.timeout.cancel();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+	{
+		while (in.isReadable() && ctx.channel().isActive())
+		{
+			int start = in.readerIndex();
+			long packetSize = PacketUtils.peekVarInt(in, start, in.writerIndex());
+			if (packetSize == PacketUtils.VARINT_INCOMPLETE)
+			{
+				return;
+			}
+			// the handshake is already validated by the sniffer
+			if (packetSize == PacketUtils.VARINT_MALFORMED || (this.state != State.HANDSHAKE && PacketUtils.varIntValue(packetSize) > MAX_PACKET_SIZE))
+			{
+				this.disconnect(ctx, "bad packet size");
+				return;
+			}
+			int bodyStart = start + PacketUtils.varIntSize(packetSize);
+			int bodyEnd = bodyStart + PacketUtils.varIntValue(packetSize);
+			if (in.writerIndex() < bodyEnd)
+			{
+				return;
+			}
+			long packetId = PacketUtils.peekVarInt(in, bodyStart, bodyEnd);
+			int packetIdValue = packetId >= 0 ? PacketUtils.varIntValue(packetId) : -1;
+			in.readerIndex(bodyEnd);
+
+			switch (this.state)
+			{
+				case HANDSHAKE:
+					this.state = State.STATUS_REQUEST;
+					break;
+				case STATUS_REQUEST:
+					if (packetIdValue != STATUS_REQUEST_PACKET_ID)
+					{
+						this.disconnect(ctx, "expecting a status request");
+						return;
+					}
+					ctx.writeAndFlush(this.status.getResponsePacket());
+					this.state = State.PING_REQUEST;
+					break;
+				case PING_REQUEST:
+					if (packetIdValue != PING_REQUEST_PACKET_ID)
+					{
+						this.disconnect(ctx, "expecting a ping request");
+						return;
+					}
+					// the pong packet has the same id and payload as the ping request
+					ctx.writeAndFlush(in.retainedSlice(start, bodyEnd - start)).addListener(ChannelFutureListener.CLOSE);
+					this.state = State.DONE;
+					return;
+				case DONE:
+					return;
+			}
+		}
+	}
+
+	private void disconnect(ChannelHandlerContext ctx, String reason)
+	{
+		if (this.config.isLoggingEnabled()) LOGGER.warn("Disconnecting status client {}: {}", ctx.channel().remoteAddress(), reason);
+		ctx.channel().close();
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+	{
+		if (this.config.isLoggingEnabled()) LOGGER.error("status responder error: {}", cause.toString());
+		ctx.channel().close();
+	}
+
+	private enum State
+	{
+		HANDSHAKE, STATUS_REQUEST, PING_REQUEST, DONE
+	}
+}
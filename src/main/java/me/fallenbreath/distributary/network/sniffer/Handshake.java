@@ -0,0 +1,105 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.sniffer;
+
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.RouteType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Metadata extracted from the first packet of a connection
+ */
+@SuppressWarnings("ClassCanBeRecord")
+public final class Handshake
+{
+	public static final int UNKNOWN_PROTOCOL = -1;
+
+	@NotNull public final RouteType type;
+	@NotNull public final Address address;
+	public final int protocolVersion;
+	@NotNull public final Intent intent;
+
+	public Handshake(@NotNull Address address, int protocolVersion, @NotNull Intent intent)
+	{
+		this(RouteType.MINECRAFT, address, protocolVersion, intent);
+	}
+
+	public Handshake(@NotNull RouteType type, @NotNull Address address, int protocolVersion, @NotNull Intent intent)
+	{
+		this.type = type;
+		this.address = address;
+		this.protocolVersion = protocolVersion;
+		this.intent = intent;
+	}
+
+	public enum Intent
+	{
+		STATUS, LOGIN, TRANSFER, UNKNOWN;
+
+		/**
+		 * @param nextState the "intention" field in the handshake packet
+		 */
+		public static Intent fromNextState(int nextState)
+		{
+			switch (nextState)
+			{
+				case 1:
+					return STATUS;
+				case 2:
+					return LOGIN;
+				case 3:
+					return TRANSFER;
+				default:
+					return UNKNOWN;
+			}
+		}
+
+		/**
+		 * For config values like "status" or "login"
+		 */
+		@Nullable
+		public static Intent fromName(String name)
+		{
+			for (Intent intent : values())
+			{
+				if (intent != UNKNOWN && intent.name().equals(name.toUpperCase(Locale.ROOT)))
+				{
+					return intent;
+				}
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Handshake{" +
+				"type=" + type +
+				", address=" + address +
+				", protocolVersion=" + protocolVersion +
+				", intent=" + intent +
+				'}';
+	}
+}
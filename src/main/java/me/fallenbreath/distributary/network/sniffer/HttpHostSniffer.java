@@ -0,0 +1,190 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.sniffer;
+
+import io.netty.buffer.ByteBuf;
+import me.fallenbreath.distributary.DistributaryMod;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.RouteType;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extracts the Host header from the first request of a plaintext HTTP/1.x connection
+ * <p>
+ * The request is accepted as soon as the Host header line is received, the rest of the request is not waited for.
+ * Requests without a Host header, like some HTTP/1.0 ones, are accepted without an address
+ */
+public class HttpHostSniffer implements Sniffer
+{
+	private static final int MAX_HEADER_SIZE = 8192;
+	private static final int DEFAULT_PORT = 80;
+	private static final byte[] HTTP_VERSION_PREFIX = "http/1.".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] HOST_HEADER = "host:".getBytes(StandardCharsets.US_ASCII);
+
+	// offsets from the reader index: start of the current line, and how far the current line has been scanned
+	private int lineOffset = 0;
+	private int scanOffset = 0;
+	private boolean requestLineReceived = false;
+
+	/**
+	 * Request methods are uppercase letters, e.g. GET, POST
+	 */
+	public static boolean isMethodChar(int b)
+	{
+		return 'A' <= b && b <= 'Z';
+	}
+
+	@Override
+	public int getMaxSize()
+	{
+		return MAX_HEADER_SIZE;
+	}
+
+	@Override
+	public SniffingResult sniff(ByteBuf byteBuf)
+	{
+		int start = byteBuf.readerIndex();
+		while (true)
+		{
+			int lineStart = start + this.lineOffset;
+			int lf = byteBuf.indexOf(start + this.scanOffset, byteBuf.writerIndex(), (byte)'\n');
+			if (lf < 0)
+			{
+				this.scanOffset = byteBuf.readableBytes();
+				return SniffingResult.incomplete();
+			}
+			int lineEnd = lf > lineStart && byteBuf.getByte(lf - 1) == '\r' ? lf - 1 : lf;
+			this.lineOffset = this.scanOffset = lf + 1 - start;
+
+			if (!this.requestLineReceived)
+			{
+				// request line: method SP request-target SP HTTP-version, where the version is "HTTP/1.x"
+				int versionStart = lineEnd - HTTP_VERSION_PREFIX.length - 1;
+				if (versionStart - 3 < lineStart || byteBuf.getByte(versionStart - 1) != ' ' || !matchesIgnoreCase(byteBuf, versionStart, HTTP_VERSION_PREFIX))
+				{
+					return SniffingResult.reject();
+				}
+				this.requestLineReceived = true;
+			}
+			else if (lineEnd == lineStart)
+			{
+				DistributaryMod.LOGGER.debug("HTTP request without Host header");
+				return SniffingResult.acceptWithoutAddress();
+			}
+			else if (lineEnd - lineStart >= HOST_HEADER.length && matchesIgnoreCase(byteBuf, lineStart, HOST_HEADER))
+			{
+				return sniffHost(byteBuf, lineStart + HOST_HEADER.length, lineEnd);
+			}
+		}
+	}
+
+	/**
+	 * Parses the Host header value, i.e. {@code uri-host [ ":" port ]}, surrounded by optional whitespaces
+	 */
+	private static SniffingResult sniffHost(ByteBuf byteBuf, int index, int end)
+	{
+		while (index < end && isWhitespace(byteBuf.getByte(index)))
+		{
+			index++;
+		}
+		while (end > index && isWhitespace(byteBuf.getByte(end - 1)))
+		{
+			end--;
+		}
+
+		int hostnameStart = index, hostnameEnd;
+		if (index < end && byteBuf.getByte(index) == '[')
+		{
+			// IPv6 literal
+			int bracket = byteBuf.indexOf(index, end, (byte)']');
+			if (bracket < 0)
+			{
+				return SniffingResult.reject();
+			}
+			hostnameStart = index + 1;
+			hostnameEnd = bracket;
+			index = bracket + 1;
+		}
+		else
+		{
+			int colon = byteBuf.indexOf(index, end, (byte)':');
+			hostnameEnd = index = colon >= 0 ? colon : end;
+		}
+		if (hostnameStart == hostnameEnd)
+		{
+			return SniffingResult.reject();
+		}
+
+		int port = DEFAULT_PORT;
+		if (index < end)
+		{
+			if (byteBuf.getByte(index) != ':' || index + 1 == end || end - index - 1 > 5)
+			{
+				return SniffingResult.reject();
+			}
+			port = 0;
+			for (index++; index < end; index++)
+			{
+				byte b = byteBuf.getByte(index);
+				if (b < '0' || b > '9')
+				{
+					return SniffingResult.reject();
+				}
+				port = port * 10 + (b - '0');
+			}
+			if (port > 65535)
+			{
+				return SniffingResult.reject();
+			}
+		}
+
+		String hostname = byteBuf.toString(hostnameStart, hostnameEnd - hostnameStart, StandardCharsets.US_ASCII);
+		Handshake handshake = new Handshake(RouteType.HTTP, new Address(hostname, port), Handshake.UNKNOWN_PROTOCOL, Handshake.Intent.UNKNOWN);
+		DistributaryMod.LOGGER.debug("HTTP request {}", handshake);
+		return SniffingResult.accept(handshake);
+	}
+
+	private static boolean isWhitespace(byte b)
+	{
+		return b == ' ' || b == '\t';
+	}
+
+	/**
+	 * @param expected lowercase ASCII bytes
+	 */
+	private static boolean matchesIgnoreCase(ByteBuf byteBuf, int index, byte[] expected)
+	{
+		for (int i = 0; i < expected.length; i++)
+		{
+			int b = byteBuf.getByte(index + i);
+			if ('A' <= b && b <= 'Z')
+			{
+				b += 'a' - 'A';
+			}
+			if (b != expected[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
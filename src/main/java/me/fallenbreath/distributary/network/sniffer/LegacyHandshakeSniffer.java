@@ -26,91 +26,135 @@ import me.fallenbreath.distributary.config.Address;
 
 import java.nio.charset.StandardCharsets;
 
+/**
+ * Sniffs the server list pings of clients before 1.7, which start with {@link #PACKET_ID}
+ * <p>
+ * reference: net.minecraft.network.handler.LegacyQueryHandler#channelRead
+ */
 public class LegacyHandshakeSniffer implements Sniffer
 {
-	private static final int HEADER = 250;
+	public static final int PACKET_ID = 0xFE;
+	private static final int PING_PAYLOAD = 0x01;
+	private static final int PLUGIN_MESSAGE_PACKET_ID = 0xFA;
 	private static final String PING_HOST = "MC|PingHost";
-	private static final int QUERY_PACKET_ID = 254;
+	private static final int MIN_PROTOCOL = 73;
+	// FE 01 FA, the channel name as a short-prefixed UTF-16BE string, then the short payload size
+	private static final int PAYLOAD_OFFSET = 3 + 2 + PING_HOST.length() * 2 + 2;
+
+	// size of the whole 1.6 ping, known once the header is received
+	private int packetSize = -1;
+
+	/**
+	 * Tells a legacy ping from a modern handshake whose packet size VarInt starts with {@link #PACKET_ID},
+	 * since the packet id of the latter is 0x00 where the ping has the plugin message packet id
+	 *
+	 * @param byteBuf starts with {@link #PACKET_ID}
+	 */
+	public static boolean isLegacyPing(ByteBuf byteBuf)
+	{
+		int start = byteBuf.readerIndex();
+		int readable = byteBuf.readableBytes();
+		if (readable == 1)
+		{
+			return true;
+		}
+		if (byteBuf.getUnsignedByte(start + 1) != PING_PAYLOAD)
+		{
+			return false;
+		}
+		return readable == 2 || byteBuf.getUnsignedByte(start + 2) == PLUGIN_MESSAGE_PACKET_ID;
+	}
 
 	@Override
 	public SniffingResult sniff(ByteBuf byteBuf)
 	{
-		try
+		int start = byteBuf.readerIndex();
+		int readable = byteBuf.readableBytes();
+		if (byteBuf.getUnsignedByte(start) != PACKET_ID)
 		{
-			// reference: net.minecraft.network.handler.LegacyQueryHandler#channelRead
-			if (byteBuf.readUnsignedByte() != QUERY_PACKET_ID)
+			return SniffingResult.reject();
+		}
+		if (readable == 1)
+		{
+			DistributaryMod.LOGGER.debug("Legacy Ping (<1.3.x)");
+			return SniffingResult.acceptWithoutAddress();
+		}
+		if (byteBuf.getUnsignedByte(start + 1) != PING_PAYLOAD)
+		{
+			return SniffingResult.reject();
+		}
+		if (readable == 2)
+		{
+			DistributaryMod.LOGGER.debug("Legacy Ping: (1.4-1.5.x)");
+			return SniffingResult.acceptWithoutAddress();
+		}
+
+		// reference: net.minecraft.network.handler.LegacyQueryHandler.isLegacyQuery
+		if (this.packetSize < 0)
+		{
+			if (byteBuf.getUnsignedByte(start + 2) != PLUGIN_MESSAGE_PACKET_ID)
 			{
 				return SniffingResult.reject();
 			}
-
-			int magic = byteBuf.readableBytes();
-			if (magic == 0)
+			if (readable < PAYLOAD_OFFSET)
 			{
-				DistributaryMod.LOGGER.debug("Legacy Ping (<1.3.x)");
+				return SniffingResult.incomplete();
 			}
-			else
+			if (!matchesString(byteBuf, start + 3, PING_HOST))
 			{
-				if (byteBuf.readUnsignedByte() != 0x01)
-				{
-					return SniffingResult.reject();
-				}
-
-				if (byteBuf.isReadable())
-				{
-					// reference: net.minecraft.network.handler.LegacyQueryHandler.isLegacyQuery
-
-					short s = byteBuf.readUnsignedByte();
-					if (s != HEADER)
-					{
-						return SniffingResult.reject();
-					}
-
-					String string = readString(byteBuf);
-					if (!PING_HOST.equals(string))
-					{
-						return SniffingResult.reject();
-					}
-
-					int i = byteBuf.readUnsignedShort();
-					if (byteBuf.readableBytes() != i)
-					{
-						return SniffingResult.reject();
-					}
-
-					short t = byteBuf.readUnsignedByte();
-					if (t < 73)
-					{
-						return SniffingResult.reject();
-					}
-					String hostname = readString(byteBuf);
-					int port = byteBuf.readInt();
-					if (port < 0 || port > 65535)
-					{
-						return SniffingResult.reject();
-					}
-
-					DistributaryMod.LOGGER.debug("Legacy Ping (1.6)");
-					return SniffingResult.accept(new Address(hostname, port));
-				}
-				else
-				{
-					DistributaryMod.LOGGER.debug("Legacy Ping: (1.4-1.5.x)");
-				}
+				return SniffingResult.reject();
 			}
-			return SniffingResult.acceptWithoutAddress();
+			this.packetSize = PAYLOAD_OFFSET + byteBuf.getUnsignedShort(start + PAYLOAD_OFFSET - 2);
 		}
-		catch (IndexOutOfBoundsException e)
+		if (readable < this.packetSize)
 		{
 			return SniffingResult.incomplete();
 		}
+		if (readable > this.packetSize)
+		{
+			return SniffingResult.reject();
+		}
+
+		int end = start + this.packetSize;
+		int index = start + PAYLOAD_OFFSET;
+		short protocol = byteBuf.getUnsignedByte(index);
+		if (protocol < MIN_PROTOCOL || index + 3 > end)
+		{
+			return SniffingResult.reject();
+		}
+		int hostnameBytes = byteBuf.getShort(index + 1) * 2;
+		index += 3;
+		if (hostnameBytes < 0 || index + hostnameBytes + 4 > end)
+		{
+			return SniffingResult.reject();
+		}
+		String hostname = byteBuf.toString(index, hostnameBytes, StandardCharsets.UTF_16BE);
+		int port = byteBuf.getInt(index + hostnameBytes);
+		if (port < 0 || port > 65535)
+		{
+			return SniffingResult.reject();
+		}
+
+		DistributaryMod.LOGGER.debug("Legacy Ping (1.6)");
+		return SniffingResult.accept(new Handshake(new Address(hostname, port), protocol, Handshake.Intent.STATUS));
 	}
 
-	public static String readString(ByteBuf buf) 
+	/**
+	 * Compares a short-prefixed UTF-16BE string at the given index, without decoding it
+	 */
+	private static boolean matchesString(ByteBuf buf, int index, String expected)
 	{
-		int stringLen = buf.readShort();
-		int bufLen = stringLen * 2;
-		String string = buf.toString(buf.readerIndex(), bufLen, StandardCharsets.UTF_16BE);
-		buf.skipBytes(bufLen);
-		return string;
+		if (buf.getShort(index) != expected.length())
+		{
+			return false;
+		}
+		for (int i = 0; i < expected.length(); i++)
+		{
+			if (buf.getChar(index + 2 + i * 2) != expected.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
 	}
 }
@@ -23,38 +23,115 @@ package me.fallenbreath.distributary.network.sniffer;
 import io.netty.buffer.ByteBuf;
 import me.fallenbreath.distributary.DistributaryMod;
 import me.fallenbreath.distributary.config.Address;
-import me.fallenbreath.distributary.config.Config;
-import net.minecraft.network.FriendlyByteBuf;
+import me.fallenbreath.distributary.utils.PacketUtils;
 
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the handshake packet in place with absolute indices, without moving the reader index, copying the packet,
+ * or throwing for partial data. Nothing is allocated until the handshake is accepted
+ * <p>
+ * The packet is only parsed once it's fully received. Its size is remembered, so each segment before that costs O(1)
+ * <p>
+ * ref: net.minecraft.network.protocol.handshake.ClientIntentionPacket
+ */
 public class ModernHandshakeSniffer implements Sniffer
 {
+	private static final int HANDSHAKE_PACKET_ID = 0x00;
+	// vanilla reads it with FriendlyByteBuf#readUtf(255), which allows up to 4 bytes per char in old versions
+	private static final int MAX_HOSTNAME_BYTES = 255 * 4;
+	// packet id + protocol version + hostname + port + next state, each VarInt takes at most 5 bytes
+	private static final int MAX_PACKET_SIZE = 5 + 5 + (2 + MAX_HOSTNAME_BYTES) + 2 + 5;
+
+	// of the config snapshot of the connection
+	private final boolean loggingEnabled;
+	// the packet size VarInt, as returned by PacketUtils#peekVarInt, once it's received
+	private long packetSize = PacketUtils.VARINT_INCOMPLETE;
+
+	public ModernHandshakeSniffer(boolean loggingEnabled)
+	{
+		this.loggingEnabled = loggingEnabled;
+	}
+
 	@Override
 	public SniffingResult sniff(ByteBuf byteBuf)
 	{
-		try
+		int start = byteBuf.readerIndex();
+		if (this.packetSize == PacketUtils.VARINT_INCOMPLETE)
 		{
-			FriendlyByteBuf buf = new FriendlyByteBuf(byteBuf);
-			int packetSize = buf.readVarInt();
-			FriendlyByteBuf bodyBuf = new FriendlyByteBuf(buf.readBytes(packetSize));
-			int packetId = bodyBuf.readVarInt();
-			if (packetId != 0x00)  // HandshakeC2SPacket
+			long packetSize = PacketUtils.peekVarInt(byteBuf, start, byteBuf.writerIndex());
+			if (packetSize == PacketUtils.VARINT_INCOMPLETE)
+			{
+				return SniffingResult.incomplete();
+			}
+			if (packetSize == PacketUtils.VARINT_MALFORMED || PacketUtils.varIntValue(packetSize) < 0 || PacketUtils.varIntValue(packetSize) > MAX_PACKET_SIZE)
 			{
-				if (Config.shouldLog()) DistributaryMod.LOGGER.warn("bad packet id {}", packetId);
 				return SniffingResult.reject();
 			}
+			this.packetSize = packetSize;
+		}
+		int index = start + PacketUtils.varIntSize(this.packetSize);
+		int end = index + PacketUtils.varIntValue(this.packetSize);
+		if (byteBuf.writerIndex() < end)
+		{
+			return SniffingResult.incomplete();
+		}
+
+		// the whole packet is here now, so running out of bytes below means a malformed packet
+		long packetId = PacketUtils.peekVarInt(byteBuf, index, end);
+		if (packetId < 0 || PacketUtils.varIntValue(packetId) != HANDSHAKE_PACKET_ID)
+		{
+			if (this.loggingEnabled) DistributaryMod.LOGGER.warn("bad packet id {}", packetId < 0 ? "<malformed>" : PacketUtils.varIntValue(packetId));
+			return SniffingResult.reject();
+		}
+		index += PacketUtils.varIntSize(packetId);
 
-			// ref: net.minecraft.network.protocol.handshake.ClientIntentionPacket
-			int protocol = bodyBuf.readVarInt();
-			String hostname = bodyBuf.readUtf(255);
-			int port = bodyBuf.readUnsignedShort();
-			int nextState = bodyBuf.readVarInt();
+		long protocol = PacketUtils.peekVarInt(byteBuf, index, end);
+		if (protocol < 0)
+		{
+			return SniffingResult.reject();
+		}
+		index += PacketUtils.varIntSize(protocol);
+
+		long hostnameSize = PacketUtils.peekVarInt(byteBuf, index, end);
+		if (hostnameSize < 0 || PacketUtils.varIntValue(hostnameSize) < 0 || PacketUtils.varIntValue(hostnameSize) > MAX_HOSTNAME_BYTES)
+		{
+			return SniffingResult.reject();
+		}
+		int hostnameIndex = index + PacketUtils.varIntSize(hostnameSize);
+		index = hostnameIndex + PacketUtils.varIntValue(hostnameSize);
 
-			DistributaryMod.LOGGER.debug("HandshakeC2SPacket protocol={} address={}:{} nextState={}", protocol, hostname, port, nextState);
-			return SniffingResult.accept(new Address(hostname, port));
+		if (index + 2 > end)
+		{
+			return SniffingResult.reject();
 		}
-		catch (IndexOutOfBoundsException e)
+		int port = byteBuf.getUnsignedShort(index);
+		index += 2;
+
+		long nextState = PacketUtils.peekVarInt(byteBuf, index, end);
+		if (nextState < 0)
 		{
-			return SniffingResult.incomplete();
+			return SniffingResult.reject();
+		}
+
+		String hostname = decodeHostname(byteBuf, hostnameIndex, PacketUtils.varIntValue(hostnameSize));
+		Handshake handshake = new Handshake(new Address(hostname, port), PacketUtils.varIntValue(protocol), Handshake.Intent.fromNextState(PacketUtils.varIntValue(nextState)));
+		DistributaryMod.LOGGER.debug("HandshakeC2SPacket {}", handshake);
+		return SniffingResult.accept(handshake);
+	}
+
+	/**
+	 * Hostnames are ASCII in practice, which can be decoded without going through the UTF-8 decoder
+	 */
+	private static String decodeHostname(ByteBuf byteBuf, int index, int length)
+	{
+		for (int i = index; i < index + length; i++)
+		{
+			if (byteBuf.getByte(i) < 0)
+			{
+				return byteBuf.toString(index, length, StandardCharsets.UTF_8);
+			}
 		}
+		return byteBuf.toString(index, length, StandardCharsets.US_ASCII);
 	}
 }
@@ -22,6 +22,12 @@ package me.fallenbreath.distributary.network.sniffer;
 
 import io.netty.buffer.ByteBuf;
 
+/**
+ * Sniffs the first packet of a connection. A sniffer instance is for a single connection, and may keep its parse progress,
+ * since it's called again with the same buffer plus the newly received bytes after returning {@link SniffingResult.State#INCOMPLETE}
+ * <p>
+ * Sniffers should not move the reader index of the buffer
+ */
 public interface Sniffer
 {
 	default String getName()
@@ -29,5 +35,14 @@ public interface Sniffer
 		return this.getClass().getSimpleName();
 	}
 
+	/**
+	 * The connection is closed if the sniffer is still incomplete with more bytes than this
+	 */
+	default int getMaxSize()
+	{
+		// larger than any valid Minecraft handshake, including a few bytes of the following packet
+		return 2048;
+	}
+
 	SniffingResult sniff(ByteBuf byteBuf);
 }
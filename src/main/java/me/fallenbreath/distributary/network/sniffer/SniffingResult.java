@@ -20,40 +20,44 @@
 
 package me.fallenbreath.distributary.network.sniffer;
 
-import me.fallenbreath.distributary.config.Address;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 @SuppressWarnings("ClassCanBeRecord")
 public final class SniffingResult
 {
+	// results without a handshake are immutable constants, so sniffing allocates nothing until a handshake is accepted
+	private static final SniffingResult ACCEPT_WITHOUT_ADDRESS = new SniffingResult(State.ACCEPT, null);
+	private static final SniffingResult INCOMPLETE = new SniffingResult(State.INCOMPLETE, null);
+	private static final SniffingResult REJECT = new SniffingResult(State.REJECT, null);
+
 	public final State state;
-	@Nullable public final Address address;
+	@Nullable public final Handshake handshake;
 
-	public SniffingResult(State state, @Nullable Address address)
+	public SniffingResult(State state, @Nullable Handshake handshake)
 	{
 		this.state = state;
-		this.address = address;
+		this.handshake = handshake;
 	}
 
-	public static SniffingResult accept(@NotNull Address address)
+	public static SniffingResult accept(@NotNull Handshake handshake)
 	{
-		return new SniffingResult(State.ACCEPT, address);
+		return new SniffingResult(State.ACCEPT, handshake);
 	}
 
 	public static SniffingResult acceptWithoutAddress()
 	{
-		return new SniffingResult(State.ACCEPT, null);
+		return ACCEPT_WITHOUT_ADDRESS;
 	}
 
 	public static SniffingResult incomplete()
 	{
-		return new SniffingResult(State.INCOMPLETE, null);
+		return INCOMPLETE;
 	}
 
 	public static SniffingResult reject()
 	{
-		return new SniffingResult(State.REJECT, null);
+		return REJECT;
 	}
 
 	public enum State
@@ -66,7 +70,7 @@ public final class SniffingResult
 	{
 		return "SniffingResult{" +
 				"state=" + state +
-				", address=" + address +
+				", handshake=" + handshake +
 				'}';
 	}
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.sniffer;
+
+import io.netty.buffer.ByteBuf;
+import me.fallenbreath.distributary.DistributaryMod;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.RouteType;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extracts the server name indication (RFC 6066) from the TLS ClientHello, without terminating the TLS connection
+ * <p>
+ * Only the first TLS record is inspected. A ClientHello fragmented into multiple records is accepted without an address
+ */
+public class TlsSniffer implements Sniffer
+{
+	public static final int CONTENT_TYPE_HANDSHAKE = 0x16;
+	// SSL 3.0 and every TLS version so far have major version 3, in the record header too
+	public static final int MAJOR_VERSION = 0x03;
+	private static final int RECORD_HEADER_SIZE = 5;
+	private static final int MAX_RECORD_SIZE = 16384;
+	private static final int HANDSHAKE_TYPE_CLIENT_HELLO = 0x01;
+	private static final int EXTENSION_SERVER_NAME = 0x0000;
+	private static final int NAME_TYPE_HOST_NAME = 0x00;
+
+	// size of the first record, known once the record header is received
+	private int recordSize = -1;
+
+	@Override
+	public int getMaxSize()
+	{
+		return RECORD_HEADER_SIZE + MAX_RECORD_SIZE;
+	}
+
+	@Override
+	public SniffingResult sniff(ByteBuf byteBuf)
+	{
+		int start = byteBuf.readerIndex();
+		if (this.recordSize < 0)
+		{
+			if (byteBuf.readableBytes() < RECORD_HEADER_SIZE)
+			{
+				return SniffingResult.incomplete();
+			}
+			if (byteBuf.getUnsignedByte(start) != CONTENT_TYPE_HANDSHAKE || byteBuf.getUnsignedByte(start + 1) != MAJOR_VERSION)
+			{
+				return SniffingResult.reject();
+			}
+			int recordSize = byteBuf.getUnsignedShort(start + 3);
+			if (recordSize > MAX_RECORD_SIZE)
+			{
+				return SniffingResult.reject();
+			}
+			this.recordSize = recordSize;
+		}
+		int index = start + RECORD_HEADER_SIZE;
+		int end = index + this.recordSize;
+		if (byteBuf.writerIndex() < end)
+		{
+			return SniffingResult.incomplete();
+		}
+
+		// handshake header: type (1), length (3)
+		if (index + 4 > end || byteBuf.getUnsignedByte(index) != HANDSHAKE_TYPE_CLIENT_HELLO)
+		{
+			return SniffingResult.reject();
+		}
+		int helloEnd = index + 4 + byteBuf.getUnsignedMedium(index + 1);
+		if (helloEnd > end)
+		{
+			DistributaryMod.LOGGER.debug("ClientHello spans multiple TLS records");
+			return SniffingResult.acceptWithoutAddress();
+		}
+		end = helloEnd;
+		index += 4;
+
+		// client version (2), random (32), then the session id, cipher suites and compression methods
+		index += 2 + 32;
+		if (index + 1 > end)
+		{
+			return SniffingResult.reject();
+		}
+		index += 1 + byteBuf.getUnsignedByte(index);
+		if (index + 2 > end)
+		{
+			return SniffingResult.reject();
+		}
+		index += 2 + byteBuf.getUnsignedShort(index);
+		if (index + 1 > end)
+		{
+			return SniffingResult.reject();
+		}
+		index += 1 + byteBuf.getUnsignedByte(index);
+		if (index == end)
+		{
+			DistributaryMod.LOGGER.debug("ClientHello without extensions");
+			return SniffingResult.acceptWithoutAddress();
+		}
+
+		if (index + 2 > end)
+		{
+			return SniffingResult.reject();
+		}
+		int extensionsEnd = index + 2 + byteBuf.getUnsignedShort(index);
+		if (extensionsEnd > end)
+		{
+			return SniffingResult.reject();
+		}
+		index += 2;
+		while (index + 4 <= extensionsEnd)
+		{
+			int extensionType = byteBuf.getUnsignedShort(index);
+			int extensionEnd = index + 4 + byteBuf.getUnsignedShort(index + 2);
+			if (extensionEnd > extensionsEnd)
+			{
+				return SniffingResult.reject();
+			}
+			if (extensionType == EXTENSION_SERVER_NAME)
+			{
+				return sniffServerName(byteBuf, index + 4, extensionEnd);
+			}
+			index = extensionEnd;
+		}
+
+		DistributaryMod.LOGGER.debug("ClientHello without SNI");
+		return SniffingResult.acceptWithoutAddress();
+	}
+
+	/**
+	 * Reads the host name in the ServerNameList, i.e. the data of a server_name extension
+	 */
+	private static SniffingResult sniffServerName(ByteBuf byteBuf, int index, int end)
+	{
+		if (index + 2 > end || index + 2 + byteBuf.getUnsignedShort(index) != end)
+		{
+			return SniffingResult.reject();
+		}
+		index += 2;
+		while (index + 3 <= end)
+		{
+			int nameType = byteBuf.getUnsignedByte(index);
+			int nameSize = byteBuf.getUnsignedShort(index + 1);
+			index += 3;
+			if (index + nameSize > end)
+			{
+				return SniffingResult.reject();
+			}
+			if (nameType == NAME_TYPE_HOST_NAME)
+			{
+				// host names in SNI are ASCII, internationalized ones are sent in the punycode form
+				String hostname = byteBuf.toString(index, nameSize, StandardCharsets.US_ASCII);
+				// a SNI carries no port
+				Handshake handshake = new Handshake(RouteType.TLS, new Address(hostname, null), Handshake.UNKNOWN_PROTOCOL, Handshake.Intent.UNKNOWN);
+				DistributaryMod.LOGGER.debug("ClientHello {}", handshake);
+				return SniffingResult.accept(handshake);
+			}
+			index += nameSize;
+		}
+		return SniffingResult.reject();
+	}
+}
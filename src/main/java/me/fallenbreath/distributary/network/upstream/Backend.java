@@ -0,0 +1,218 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import com.google.common.collect.Maps;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.network.dns.SrvResolver;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A backend server that routes forward connections to
+ * <p>
+ * Backends are shared by address across routes and config reloads,
+ * so live states like the active connection count survive a reload.
+ * Backends that a reload no longer references are retired, and removed once they have no active or pooled connection left
+ */
+public final class Backend
+{
+	private static final Map<String, Backend> BACKENDS = Maps.newConcurrentMap();
+
+	/**
+	 * The target address string in the config
+	 */
+	public final String name;
+	public final Address address;
+	private final AtomicInteger activeConnections = new AtomicInteger();
+	private final ConnectionPool pool = new ConnectionPool(this);
+
+	// health states, written by the health checker only
+	private volatile boolean healthy = true;
+	private volatile long latencyMs = -1;
+	int consecutiveSuccesses = 0;
+	int consecutiveFailures = 0;
+	long nextCheckTimeMs = 0;
+	boolean checking = false;
+
+	// not referenced by the current config, see retireUnreferenced
+	private volatile boolean retired = false;
+
+	private Backend(String name)
+	{
+		this.name = name;
+		this.address = Address.of(name);
+	}
+
+	public static Backend of(String name)
+	{
+		// atomic with pruneIfRetired, so a backend referenced by a new config is never removed
+		return BACKENDS.compute(name, (k, backend) -> {
+			if (backend == null)
+			{
+				backend = new Backend(k);
+			}
+			backend.retired = false;
+			return backend;
+		});
+	}
+
+	/**
+	 * Retires the backends that the newly published config doesn't reference
+	 * <p>
+	 * Called by config loading only, after the route table is compiled, so it never interleaves with the {@link #of} calls of a compilation
+	 */
+	public static void retireUnreferenced(Set<Backend> referenced)
+	{
+		for (Backend backend : BACKENDS.values())
+		{
+			if (!referenced.contains(backend))
+			{
+				backend.retired = true;
+			}
+		}
+	}
+
+	/**
+	 * Removes the backend from the registry if it's retired, and has no active connection or pooled connection left
+	 * <p>
+	 * Called by the {@link ConnectionPool} maintenance, after the pool of the retired backend is drained
+	 *
+	 * @return if the backend is removed
+	 */
+	static boolean pruneIfRetired(Backend backend)
+	{
+		return BACKENDS.computeIfPresent(backend.name, (k, b) -> b == backend && b.retired && b.getActiveConnections() == 0 && b.pool.isEmpty() ? null : b) == null;
+	}
+
+	static Collection<Backend> all()
+	{
+		return BACKENDS.values();
+	}
+
+	public ConnectionPool getPool()
+	{
+		return this.pool;
+	}
+
+	public int getActiveConnections()
+	{
+		return this.activeConnections.get();
+	}
+
+	public void onConnectionOpened()
+	{
+		this.activeConnections.incrementAndGet();
+	}
+
+	public void onConnectionClosed()
+	{
+		this.activeConnections.decrementAndGet();
+	}
+
+	/**
+	 * The address to connect to, with the port resolved from the SRV record, or the default port, if it's not specified
+	 *
+	 * @param executor the executor to notify the listeners of the returned future in, usually the caller's event loop
+	 * @param config the config snapshot of the caller
+	 * @return a future that never fails
+	 */
+	public Future<Address> resolveAddress(EventExecutor executor, Config config)
+	{
+		if (this.address.port != null)
+		{
+			return executor.newSucceededFuture(this.address);
+		}
+		Promise<Address> promise = executor.newPromise();
+		this.resolveAddresses(executor, config).addListener((FutureListener<List<Address>>)future -> promise.trySuccess(future.getNow().get(0)));
+		return promise;
+	}
+
+	/**
+	 * Like {@link #resolveAddress}, but with all the SRV records in the order to try them, for failing over between them
+	 *
+	 * @return a future of a non-empty list that never fails
+	 */
+	public Future<List<Address>> resolveAddresses(EventExecutor executor, Config config)
+	{
+		if (this.address.port != null)
+		{
+			return executor.newSucceededFuture(Collections.singletonList(this.address));
+		}
+		Promise<List<Address>> promise = executor.newPromise();
+		SrvResolver.resolveSrv(executor, config, this.address.hostname).addListener((FutureListener<List<Address>>)future -> {
+			List<Address> srv = future.getNow();
+			promise.trySuccess(!srv.isEmpty() ? srv : Collections.singletonList(this.address.withPort(25565)));
+		});
+		return promise;
+	}
+
+	/**
+	 * Always true if health checking is disabled
+	 */
+	public boolean isHealthy()
+	{
+		return this.healthy;
+	}
+
+	void setHealthy(boolean healthy)
+	{
+		this.healthy = healthy;
+	}
+
+	/**
+	 * @return the latency of the last successful health check, or -1 if there's none
+	 */
+	public long getLatencyMs()
+	{
+		return this.latencyMs;
+	}
+
+	void setLatencyMs(long latencyMs)
+	{
+		this.latencyMs = latencyMs;
+	}
+
+	void resetHealth()
+	{
+		this.healthy = true;
+		this.latencyMs = -1;
+		this.consecutiveSuccesses = 0;
+		this.consecutiveFailures = 0;
+		this.nextCheckTimeMs = 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.name;
+	}
+}
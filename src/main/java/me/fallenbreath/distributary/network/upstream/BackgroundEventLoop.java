@@ -0,0 +1,42 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * A single daemon event loop thread for distributary's own background network work,
+ * like health checks and connection pool maintenance, so they never run on the server's network threads
+ */
+public class BackgroundEventLoop
+{
+	private static final EventLoopGroup GROUP = new NioEventLoopGroup(1, new DefaultThreadFactory("Distributary Background", true));
+
+	/**
+	 * The group has only 1 event loop, so everything submitted to or listened on it runs on the same thread
+	 */
+	public static EventLoopGroup get()
+	{
+		return GROUP;
+	}
+}
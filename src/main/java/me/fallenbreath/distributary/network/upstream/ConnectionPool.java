@@ -0,0 +1,263 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.FutureListener;
+import me.fallenbreath.distributary.DistributaryMod;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.CompiledRoute;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.network.dns.HostResolver;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of pre-established, unused TCP connections to a backend,
+ * so a routed client doesn't need to wait for a full TCP connect to the backend
+ * <p>
+ * Pools are topped up and expired by a periodic task on the {@link BackgroundEventLoop},
+ * while the pooled channels themselves live in the event loop group of the client channels.
+ * Each pooled connection is handed out at most once
+ */
+public final class ConnectionPool
+{
+	public static final String GUARD_HANDLER_NAME = "distributary_pool_guard";
+	private static final long TICK_INTERVAL_MS = 1000;
+
+	// where the pooled channels live, captured from the first routed client channel
+	@Nullable private static volatile EventLoopGroup clientGroup = null;
+	@Nullable private static volatile Class<? extends Channel> clientChannelClass = null;
+
+	private final Backend backend;
+	private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile long idleTimeoutMs = 0;
+
+	ConnectionPool(Backend backend)
+	{
+		this.backend = backend;
+	}
+
+	public static void start()
+	{
+		BackgroundEventLoop.get().scheduleWithFixedDelay(ConnectionPool::tick, TICK_INTERVAL_MS, TICK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Pooled channels are created in the event loop group of the given client channel, with the same channel type
+	 */
+	public static void captureClientEventLoop(Channel clientChannel)
+	{
+		if (clientGroup == null)
+		{
+			clientChannelClass = clientChannel.getClass();
+			clientGroup = clientChannel.eventLoop().parent();
+		}
+	}
+
+	private static void tick()
+	{
+		Config config = Config.get();
+
+		// a backend shared by multiple routes uses the largest pool size and the shortest idle timeout among them
+		Map<Backend, int[]> wanted = Maps.newHashMap();
+		if (config.enabled)
+		{
+			Set<Backend> backends = Sets.newHashSet();
+			for (CompiledRoute route : config.getRouteTable().getRoutes())
+			{
+				if (route.route.pool_size <= 0)
+				{
+					continue;
+				}
+				backends.clear();
+				route.collectBackends(backends);
+				for (Backend backend : backends)
+				{
+					int[] settings = wanted.computeIfAbsent(backend, k -> new int[]{0, Integer.MAX_VALUE});
+					settings[0] = Math.max(settings[0], route.route.pool_size);
+					settings[1] = Math.min(settings[1], route.route.pool_idle_timeout_ms);
+				}
+			}
+		}
+
+		for (Backend backend : Backend.all())
+		{
+			int[] settings = wanted.get(backend);
+			ConnectionPool pool = backend.getPool();
+			if (settings != null)
+			{
+				pool.idleTimeoutMs = settings[1];
+				pool.maintain(config, settings[0]);
+			}
+			else
+			{
+				pool.maintain(config, 0);
+				if (Backend.pruneIfRetired(backend) && config.isLoggingEnabled())
+				{
+					DistributaryMod.LOGGER.debug("Removed backend {}, which is no longer referenced by the config", backend);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes a pooled connection out of the pool. The returned connection belongs to the caller only
+	 * <p>
+	 * The channel of the returned connection still has the guard handler, and might be closed concurrently,
+	 * so the caller should check {@link Channel#isActive} in the channel's event loop before using it
+	 */
+	@Nullable
+	public PooledConnection poll()
+	{
+		long now = System.currentTimeMillis();
+		PooledConnection connection;
+		// the newest one first, which is the furthest from being closed for idling by the backend
+		while ((connection = this.idle.pollLast()) != null)
+		{
+			if (connection.channel.isActive() && !connection.isExpired(now, this.idleTimeoutMs))
+			{
+				return connection;
+			}
+			connection.channel.close();
+		}
+		return null;
+	}
+
+	/**
+	 * No idle connection, and no connection being created
+	 */
+	boolean isEmpty()
+	{
+		return this.idle.isEmpty() && this.pending.get() == 0;
+	}
+
+	private void maintain(Config config, int targetSize)
+	{
+		// evict expired and closed connections, the oldest ones are at the head
+		long now = System.currentTimeMillis();
+		PooledConnection head;
+		while ((head = this.idle.peekFirst()) != null && (!head.channel.isActive() || head.isExpired(now, this.idleTimeoutMs) || this.idle.size() > targetSize))
+		{
+			// poll() might have taken it already
+			if (this.idle.removeFirstOccurrence(head))
+			{
+				head.channel.close();
+			}
+		}
+
+		EventLoopGroup group = clientGroup;
+		Class<? extends Channel> channelClass = clientChannelClass;
+		if (group == null || channelClass == null || !this.backend.isHealthy())
+		{
+			return;
+		}
+		int missing = targetSize - this.idle.size() - this.pending.get();
+		if (missing <= 0)
+		{
+			return;
+		}
+
+		this.pending.addAndGet(missing);
+		this.backend.resolveAddress(BackgroundEventLoop.get().next(), config).addListener((FutureListener<Address>)srvFuture -> {
+			Address address = srvFuture.getNow();
+			HostResolver.resolve(BackgroundEventLoop.get().next(), config, address.hostname).addListener((FutureListener<List<InetAddress>>)resolveFuture -> {
+				if (!resolveFuture.isSuccess())
+				{
+					this.pending.addAndGet(-missing);
+					if (config.isLoggingEnabled()) DistributaryMod.LOGGER.debug("Failed to resolve backend {} ({}) for pooling: {}", this.backend, address, resolveFuture.cause().toString());
+					return;
+				}
+				for (int i = 0; i < missing; i++)
+				{
+					HappyEyeballs.connect(group.next(), channelClass, resolveFuture.getNow(), address.port, config.connect_timeout_ms).addListener((FutureListener<Channel>)future -> {
+						this.pending.decrementAndGet();
+						if (future.isSuccess())
+						{
+							Channel channel = future.getNow();
+							channel.pipeline().addLast(GUARD_HANDLER_NAME, new GuardHandler());
+							this.idle.offerLast(new PooledConnection(address, channel, System.currentTimeMillis()));
+						}
+						else if (config.isLoggingEnabled())
+						{
+							DistributaryMod.LOGGER.debug("Failed to create pooled connection to backend {} ({}): {}", this.backend, address, future.cause().toString());
+						}
+					});
+				}
+			});
+		});
+	}
+
+	/**
+	 * Sits in the pipeline of an idle pooled channel. The backend should never send anything before the handshake,
+	 * so whatever it sends means the connection is no longer usable
+	 */
+	private static class GuardHandler extends ChannelInboundHandlerAdapter
+	{
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg)
+		{
+			ReferenceCountUtil.release(msg);
+			ctx.close();
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			ctx.close();
+		}
+	}
+
+	@SuppressWarnings("ClassCanBeRecord")
+	public static final class PooledConnection
+	{
+		public final Address address;
+		public final Channel channel;
+		private final long createdAtMs;
+
+		private PooledConnection(Address address, Channel channel, long createdAtMs)
+		{
+			this.address = address;
+			this.channel = channel;
+			this.createdAtMs = createdAtMs;
+		}
+
+		private boolean isExpired(long now, long idleTimeoutMs)
+		{
+			return now - this.createdAtMs >= idleTimeoutMs;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import com.google.common.collect.Lists;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Connects to one of the addresses of a dual-stack host, in the way of RFC 8305 (Happy Eyeballs v2)
+ * <p>
+ * Addresses are tried in the resolver's order with the address families interleaved.
+ * A new attempt starts every {@link #CONNECTION_ATTEMPT_DELAY_MS}, or right after all started attempts have failed,
+ * and the first connected channel wins. The losing attempts are closed
+ * <p>
+ * The winning channel has an empty pipeline. Everything happens in the given event loop
+ */
+public final class HappyEyeballs
+{
+	/**
+	 * The recommended value in RFC 8305
+	 */
+	public static final long CONNECTION_ATTEMPT_DELAY_MS = 250;
+
+	private final EventLoop eventLoop;
+	private final Class<? extends Channel> channelClass;
+	private final List<InetSocketAddress> addresses;
+	private final int connectTimeoutMs;
+	private final Consumer<Channel> channelInitializer;
+	private final Promise<Channel> promise;
+	private final List<Channel> attempts = Lists.newArrayList();
+	private int nextIndex = 0;
+	private int pendingCount = 0;
+	@Nullable private ScheduledFuture<?> nextAttemptTimer = null;
+
+	private HappyEyeballs(EventLoop eventLoop, Class<? extends Channel> channelClass, List<InetSocketAddress> addresses, int connectTimeoutMs, Consumer<Channel> channelInitializer)
+	{
+		this.eventLoop = eventLoop;
+		this.channelClass = channelClass;
+		this.addresses = addresses;
+		this.connectTimeoutMs = connectTimeoutMs;
+		this.channelInitializer = channelInitializer;
+		this.promise = eventLoop.newPromise();
+	}
+
+	/**
+	 * @param addresses resolved addresses of the host in the resolver's order, never empty
+	 * @param connectTimeoutMs timeout of each connection attempt
+	 * @return a future of the winning channel, or the failure of the last attempt
+	 */
+	public static Future<Channel> connect(EventLoop eventLoop, Class<? extends Channel> channelClass, List<InetAddress> addresses, int port, int connectTimeoutMs)
+	{
+		return connect(eventLoop, channelClass, addresses, port, connectTimeoutMs, channel -> {});
+	}
+
+	/**
+	 * @param channelInitializer invoked for the channel of each attempt before it connects, e.g. to set socket options
+	 */
+	public static Future<Channel> connect(EventLoop eventLoop, Class<? extends Channel> channelClass, List<InetAddress> addresses, int port, int connectTimeoutMs, Consumer<Channel> channelInitializer)
+	{
+		List<InetSocketAddress> sorted = Lists.newArrayListWithCapacity(addresses.size());
+		for (InetAddress address : interleaveFamilies(addresses))
+		{
+			sorted.add(new InetSocketAddress(address, port));
+		}
+
+		HappyEyeballs happyEyeballs = new HappyEyeballs(eventLoop, channelClass, sorted, connectTimeoutMs, channelInitializer);
+		if (eventLoop.inEventLoop())
+		{
+			happyEyeballs.startNextAttempt();
+		}
+		else
+		{
+			eventLoop.execute(happyEyeballs::startNextAttempt);
+		}
+		return happyEyeballs.promise;
+	}
+
+	/**
+	 * Starts with the family of the first address, then alternates between IPv6 and IPv4,
+	 * keeping the order within each family (RFC 8305 section 4)
+	 */
+	static List<InetAddress> interleaveFamilies(List<InetAddress> addresses)
+	{
+		List<InetAddress> v6 = Lists.newArrayList();
+		List<InetAddress> v4 = Lists.newArrayList();
+		for (InetAddress address : addresses)
+		{
+			(address instanceof Inet6Address ? v6 : v4).add(address);
+		}
+		if (v6.isEmpty() || v4.isEmpty())
+		{
+			return addresses;
+		}
+
+		boolean v6First = addresses.get(0) instanceof Inet6Address;
+		List<InetAddress> first = v6First ? v6 : v4;
+		List<InetAddress> second = v6First ? v4 : v6;
+		List<InetAddress> result = Lists.newArrayListWithCapacity(addresses.size());
+		for (int i = 0; i < Math.max(first.size(), second.size()); i++)
+		{
+			if (i < first.size())
+			{
+				result.add(first.get(i));
+			}
+			if (i < second.size())
+			{
+				result.add(second.get(i));
+			}
+		}
+		return result;
+	}
+
+	private void startNextAttempt()
+	{
+		if (this.nextAttemptTimer != null)
+		{
+			this.nextAttemptTimer.cancel(false);
+			this.nextAttemptTimer = null;
+		}
+		if (this.promise.isDone() || this.nextIndex >= this.addresses.size())
+		{
+			return;
+		}
+
+		InetSocketAddress address = this.addresses.get(this.nextIndex++);
+		Bootstrap bootstrap = new Bootstrap();
+		bootstrap.group(this.eventLoop).
+				channel(this.channelClass).
+				option(ChannelOption.TCP_NODELAY, true).
+				option(ChannelOption.CONNECT_TIMEOUT_MILLIS, this.connectTimeoutMs).
+				handler(new ChannelInitializer<Channel>()
+				{
+					@Override
+					protected void initChannel(@NotNull Channel channel)
+					{
+						// the caller installs its handlers to the winner only
+						channelInitializer.accept(channel);
+					}
+				});
+
+		this.pendingCount++;
+		ChannelFuture connectFuture = bootstrap.connect(address);
+		this.attempts.add(connectFuture.channel());
+		connectFuture.addListener(future -> this.onAttemptDone(connectFuture));
+
+		if (this.nextIndex < this.addresses.size() && !connectFuture.isDone())
+		{
+			this.nextAttemptTimer = this.eventLoop.schedule(this::startNextAttempt, CONNECTION_ATTEMPT_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void onAttemptDone(ChannelFuture connectFuture)
+	{
+		this.pendingCount--;
+		Channel channel = connectFuture.channel();
+		if (connectFuture.isSuccess())
+		{
+			if (!this.promise.trySuccess(channel))
+			{
+				channel.close();
+				return;
+			}
+			if (this.nextAttemptTimer != null)
+			{
+				this.nextAttemptTimer.cancel(false);
+				this.nextAttemptTimer = null;
+			}
+			for (Channel attempt : this.attempts)
+			{
+				if (attempt != channel)
+				{
+					attempt.close();
+				}
+			}
+			this.attempts.clear();
+		}
+		else if (this.pendingCount == 0)
+		{
+			// nothing else is in flight, no need to wait for the attempt delay
+			if (this.nextIndex < this.addresses.size())
+			{
+				this.startNextAttempt();
+			}
+			else
+			{
+				this.promise.tryFailure(connectFuture.cause());
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import io.netty.util.concurrent.FutureListener;
+import me.fallenbreath.distributary.DistributaryMod;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.Config;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically pings every backend referenced by the Minecraft routes with a server list ping,
+ * so unhealthy backends are taken out of selection before players get routed to them
+ * <p>
+ * All checks run on the {@link BackgroundEventLoop}, and backend health states are only written on that thread
+ */
+public class HealthChecker
+{
+	private static final long TICK_INTERVAL_MS = 500;
+
+	private static Config.HealthCheck lastSettings = null;
+	private static boolean wasActive = false;
+
+	public static void start()
+	{
+		BackgroundEventLoop.get().scheduleWithFixedDelay(HealthChecker::tick, TICK_INTERVAL_MS, TICK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private static void tick()
+	{
+		Config config = Config.get();
+		Config.HealthCheck settings = config.health_check;
+		boolean active = config.enabled && settings.enabled;
+		if (settings != lastSettings)
+		{
+			lastSettings = settings;
+			if (active && config.isLoggingEnabled())
+			{
+				DistributaryMod.LOGGER.info("Health checking {} backends, {}", config.getRouteTable().getMinecraftBackends().size(), settings);
+			}
+		}
+
+		if (!active)
+		{
+			if (wasActive)
+			{
+				// so no backend stays out of selection with a stale state
+				wasActive = false;
+				Backend.all().forEach(Backend::resetHealth);
+			}
+			return;
+		}
+		wasActive = true;
+
+		long now = System.currentTimeMillis();
+		Set<Backend> backends = config.getRouteTable().getMinecraftBackends();
+		for (Backend backend : backends)
+		{
+			if (!backend.checking && now >= backend.nextCheckTimeMs)
+			{
+				check(config, backend);
+			}
+		}
+	}
+
+	private static void check(Config config, Backend backend)
+	{
+		Config.HealthCheck settings = config.health_check;
+		backend.checking = true;
+		backend.nextCheckTimeMs = System.currentTimeMillis() + settings.interval_ms;
+
+		// the background group has only 1 event loop, so the listeners are invoked on our thread
+		int proxyProtocolVersion = config.getRouteTable().getProxyProtocolVersion(backend);
+		backend.resolveAddress(BackgroundEventLoop.get().next(), config).addListener((FutureListener<Address>)srvFuture -> {
+			long start = System.nanoTime();
+			StatusPinger.ping(BackgroundEventLoop.get(), config, srvFuture.getNow(), settings.timeout_ms, proxyProtocolVersion).addListener(future -> {
+				backend.checking = false;
+				if (future.isSuccess())
+				{
+					long latencyMs = (System.nanoTime() - start) / 1_000_000;
+					backend.setLatencyMs(latencyMs);
+					onCheckResult(config, backend, true, latencyMs + "ms");
+				}
+				else
+				{
+					onCheckResult(config, backend, false, String.valueOf(future.cause()));
+				}
+			});
+		});
+	}
+
+	private static void onCheckResult(Config config, Backend backend, boolean success, String detail)
+	{
+		if (!wasActive)
+		{
+			return;  // checking has been turned off while this check was in flight, and the health is already reset
+		}
+		Config.HealthCheck settings = config.health_check;
+		if (config.isLoggingEnabled()) DistributaryMod.LOGGER.debug("Health check of backend {}: {}, {}", backend, success ? "ok" : "failed", detail);
+		if (success)
+		{
+			backend.consecutiveFailures = 0;
+			backend.consecutiveSuccesses++;
+			if (!backend.isHealthy() && backend.consecutiveSuccesses >= settings.rise)
+			{
+				backend.setHealthy(true);
+				if (config.isLoggingEnabled()) DistributaryMod.LOGGER.info("Backend {} is up after {} successful health checks, latency {}", backend, backend.consecutiveSuccesses, detail);
+			}
+		}
+		else
+		{
+			backend.consecutiveSuccesses = 0;
+			backend.consecutiveFailures++;
+			if (backend.isHealthy() && backend.consecutiveFailures >= settings.fall)
+			{
+				backend.setHealthy(false);
+				if (config.isLoggingEnabled()) DistributaryMod.LOGGER.warn("Backend {} is down after {} failed health checks, last error: {}", backend, backend.consecutiveFailures, detail);
+			}
+		}
+	}
+}
@@ -18,19 +18,24 @@
  * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
  */
 
-package me.fallenbreath.distributary.network.handler;
+package me.fallenbreath.distributary.network.upstream;
 
-import me.fallenbreath.distributary.config.Address;
-import me.fallenbreath.distributary.config.Route;
-
-class RouteResult
+/**
+ * Picks the backend with the fewest active connections per weight. Ties go to the first one in config order
+ */
+class LeastConnectionsBalancer implements LoadBalancer
 {
-	public final Route route;
-	public final Address address;
-
-	RouteResult(Route route, Address address)
+	@Override
+	public WeightedBackend select(WeightedBackend[] backends)
 	{
-		this.route = route;
-		this.address = address;
+		WeightedBackend best = backends[0];
+		for (int i = 1; i < backends.length; i++)
+		{
+			if (backends[i].isLessLoadedThan(best))
+			{
+				best = backends[i];
+			}
+		}
+		return best;
 	}
 }
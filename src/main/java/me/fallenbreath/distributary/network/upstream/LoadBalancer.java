@@ -0,0 +1,52 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import java.util.Locale;
+
+/**
+ * Picks a backend for a new connection. Implementations are lock-free, and are shared by all connections of a route
+ */
+public interface LoadBalancer
+{
+	/**
+	 * @param backends the candidates, never empty
+	 */
+	WeightedBackend select(WeightedBackend[] backends);
+
+	/**
+	 * @param strategy the "load_balance" value in the route config
+	 */
+	static LoadBalancer create(String strategy)
+	{
+		switch (strategy.toLowerCase(Locale.ROOT))
+		{
+			case "round_robin":
+				return new RoundRobinBalancer();
+			case "least_connections":
+				return new LeastConnectionsBalancer();
+			case "power_of_two_choices":
+				return new PowerOfTwoChoicesBalancer();
+			default:
+				throw new IllegalArgumentException(String.format("unknown load_balance strategy %s, should be one of round_robin, least_connections, power_of_two_choices", strategy));
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples 2 backends randomly by weight, and picks the one with fewer active connections per weight
+ * <p>
+ * Nearly as balanced as least-connections, but doesn't make every concurrent new connection
+ * pile onto the same least loaded backend before the counters catch up
+ */
+class PowerOfTwoChoicesBalancer implements LoadBalancer
+{
+	@Override
+	public WeightedBackend select(WeightedBackend[] backends)
+	{
+		if (backends.length == 1)
+		{
+			return backends[0];
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int totalWeight = WeightedBackend.totalWeight(backends);
+		WeightedBackend a = WeightedBackend.byWeightOffset(backends, random.nextInt(totalWeight));
+		WeightedBackend b = WeightedBackend.byWeightOffset(backends, random.nextInt(totalWeight));
+		return b.isLessLoadedThan(a) ? b : a;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Weighted round-robin, a backend with weight n gets n consecutive turns in each round
+ */
+class RoundRobinBalancer implements LoadBalancer
+{
+	private final AtomicInteger counter = new AtomicInteger();
+
+	@Override
+	public WeightedBackend select(WeightedBackend[] backends)
+	{
+		if (backends.length == 1)
+		{
+			return backends[0];
+		}
+		int turn = this.counter.getAndIncrement() & Integer.MAX_VALUE;
+		return WeightedBackend.byWeightOffset(backends, turn % WeightedBackend.totalWeight(backends));
+	}
+}
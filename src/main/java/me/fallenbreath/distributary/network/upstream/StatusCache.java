@@ -0,0 +1,219 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.FutureListener;
+import me.fallenbreath.distributary.DistributaryMod;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.utils.PacketUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * The last status response of a route's backend, so server list pings can be answered without connecting to the backend
+ * <p>
+ * The cache is refreshed in the background on the {@link BackgroundEventLoop} once it's older than the TTL,
+ * with at most 1 refresh in flight. Meanwhile, the stale status keeps being served.
+ * If a refresh fails, the status keeps being served until it's older than the max stale age,
+ * then it's dropped, so pings are forwarded to the backend again until a refresh succeeds
+ */
+public class StatusCache
+{
+	// what vanilla LegacyQueryHandler responds with, which is always incompatible with the legacy clients anyway
+	private static final int LEGACY_PROTOCOL_VERSION = 127;
+
+	private final int ttlMs;
+	private final int maxStaleMs;
+	private final int proxyProtocolVersion;
+	private final Supplier<Backend> backendSelector;
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	private volatile long nextRefreshTimeMs = 0;
+	@Nullable private volatile Status status = null;
+	// only accessed on the BackgroundEventLoop
+	private long statusTimeMs = 0;
+
+	/**
+	 * @param proxyProtocolVersion the version of the PROXY header the backend expects, or 0 for none
+	 * @param backendSelector selects the backend to fetch the status from for each refresh
+	 */
+	public StatusCache(int ttlMs, int maxStaleMs, int proxyProtocolVersion, Supplier<Backend> backendSelector)
+	{
+		this.ttlMs = ttlMs;
+		this.maxStaleMs = maxStaleMs;
+		this.proxyProtocolVersion = proxyProtocolVersion;
+		this.backendSelector = backendSelector;
+	}
+
+	/**
+	 * Starts a refresh in the background if the cache is expired
+	 *
+	 * @return the cached status, which might be stale, or null if there's none yet
+	 */
+	@Nullable
+	public Status get(Config config)
+	{
+		long now = System.currentTimeMillis();
+		if (now >= this.nextRefreshTimeMs && this.refreshing.compareAndSet(false, true))
+		{
+			this.nextRefreshTimeMs = now + this.ttlMs;
+			BackgroundEventLoop.get().execute(() -> this.refresh(config));
+		}
+		return this.status;
+	}
+
+	private void refresh(Config config)
+	{
+		Backend backend = this.backendSelector.get();
+		backend.resolveAddress(BackgroundEventLoop.get().next(), config).addListener((FutureListener<Address>)srvFuture -> {
+			// it's the same request as a health check
+			StatusPinger.ping(BackgroundEventLoop.get(), config, srvFuture.getNow(), config.health_check.timeout_ms, this.proxyProtocolVersion).addListener((FutureListener<String>)future -> {
+				Status status = null;
+				if (future.isSuccess())
+				{
+					try
+					{
+						status = Status.of(future.getNow());
+						if (config.isLoggingEnabled()) DistributaryMod.LOGGER.debug("Refreshed the cached status from backend {}", backend);
+					}
+					catch (RuntimeException e)
+					{
+						if (config.isLoggingEnabled()) DistributaryMod.LOGGER.warn("Bad status response from backend {}: {}", backend, e.toString());
+					}
+				}
+				else
+				{
+					if (config.isLoggingEnabled()) DistributaryMod.LOGGER.warn("Failed to refresh the cached status from backend {}: {}", backend, future.cause().toString());
+				}
+
+				long now = System.currentTimeMillis();
+				if (status != null)
+				{
+					this.status = status;
+					this.statusTimeMs = now;
+				}
+				else if (this.status != null && now - this.statusTimeMs > this.maxStaleMs)
+				{
+					if (config.isLoggingEnabled()) DistributaryMod.LOGGER.warn("Dropped the cached status, which is older than {}ms after failed refreshes", this.maxStaleMs);
+					this.status = null;
+				}
+				this.refreshing.set(false);
+			});
+		});
+	}
+
+	/**
+	 * A status response, encoded for both the modern and the legacy server list ping
+	 */
+	public static final class Status
+	{
+		private final byte[] responsePacket;
+		private final byte[] legacyResponse;
+
+		private Status(byte[] responsePacket, byte[] legacyResponse)
+		{
+			this.responsePacket = responsePacket;
+			this.legacyResponse = legacyResponse;
+		}
+
+		private static Status of(String json)
+		{
+			ByteBuf body = Unpooled.buffer();
+			PacketUtils.writeVarInt(body, 0x00);  // ClientboundStatusResponsePacket
+			PacketUtils.writeString(body, json);
+			ByteBuf packet = Unpooled.buffer(5 + body.readableBytes());
+			PacketUtils.writeVarInt(packet, body.readableBytes());
+			packet.writeBytes(body);
+
+			// reference: net.minecraft.server.network.LegacyQueryHandler
+			JsonObject status = new Gson().fromJson(json, JsonObject.class);
+			JsonObject version = status.getAsJsonObject("version");
+			JsonObject players = status.getAsJsonObject("players");
+			String legacyStatus = String.format(
+					Locale.ROOT, "\u00a71\0%d\0%s\0%s\0%d\0%d",
+					LEGACY_PROTOCOL_VERSION,
+					version != null && version.has("name") ? version.get("name").getAsString() : "",
+					flattenText(status.get("description")),
+					players != null && players.has("online") ? players.get("online").getAsInt() : 0,
+					players != null && players.has("max") ? players.get("max").getAsInt() : 0
+			);
+			ByteBuf legacy = Unpooled.buffer();
+			legacy.writeByte(0xFF);  // disconnect packet
+			legacy.writeShort(legacyStatus.length());
+			legacy.writeBytes(legacyStatus.getBytes(StandardCharsets.UTF_16BE));
+
+			return new Status(ByteBufUtil.getBytes(packet), ByteBufUtil.getBytes(legacy));
+		}
+
+		/**
+		 * The plain text of a text component, without styles
+		 */
+		private static String flattenText(@Nullable JsonElement text)
+		{
+			if (text == null || text.isJsonNull())
+			{
+				return "";
+			}
+			if (text.isJsonPrimitive())
+			{
+				return text.getAsString();
+			}
+			StringBuilder sb = new StringBuilder();
+			if (text.isJsonArray())
+			{
+				text.getAsJsonArray().forEach(element -> sb.append(flattenText(element)));
+			}
+			else if (text.isJsonObject())
+			{
+				JsonObject object = text.getAsJsonObject();
+				sb.append(flattenText(object.get("text")));
+				sb.append(flattenText(object.get("extra")));
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * @return the length-prefixed ClientboundStatusResponsePacket
+		 */
+		public ByteBuf getResponsePacket()
+		{
+			return Unpooled.wrappedBuffer(this.responsePacket);
+		}
+
+		/**
+		 * @return the kick packet that legacy clients read the status from
+		 */
+		public ByteBuf getLegacyResponse()
+		{
+			return Unpooled.wrappedBuffer(this.legacyResponse);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.network.dns.HostResolver;
+import me.fallenbreath.distributary.network.handler.ProxyProtocolHeader;
+import me.fallenbreath.distributary.utils.PacketUtils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Performs a server list ping against a Minecraft server: handshake with the status intent, then a status request
+ */
+public class StatusPinger
+{
+	// status responses with a server icon are usually tens of KiB
+	private static final int MAX_RESPONSE_SIZE = 256 * 1024;
+	// by convention, for a ping that doesn't know the server version yet
+	private static final int PING_PROTOCOL_VERSION = -1;
+
+	/**
+	 * @param group the event loop group of {@link NioSocketChannel}s to use
+	 * @param config the config snapshot of the caller, for resolving the address
+	 * @param proxyProtocolVersion the version of the PROXY header to send before the handshake, or 0 for none.
+	 *                             The header carries the addresses of the ping connection itself
+	 * @return a future of the status json, failed if anything goes wrong within the timeout
+	 */
+	public static Future<String> ping(EventLoopGroup group, Config config, Address address, int timeoutMs, int proxyProtocolVersion)
+	{
+		EventLoop eventLoop = group.next();
+		Promise<String> promise = eventLoop.newPromise();
+
+		ScheduledFuture<?> timeoutTask = eventLoop.schedule(
+				() -> promise.tryFailure(new TimeoutException("status ping timed out after " + timeoutMs + "ms")),
+				timeoutMs, TimeUnit.MILLISECONDS
+		);
+		promise.addListener(future -> timeoutTask.cancel(false));
+
+		HostResolver.resolve(eventLoop, config, address.hostname).addListener((FutureListener<List<InetAddress>>)resolveFuture -> {
+			if (!resolveFuture.isSuccess())
+			{
+				promise.tryFailure(resolveFuture.cause());
+				return;
+			}
+			HappyEyeballs.connect(eventLoop, NioSocketChannel.class, resolveFuture.getNow(), address.port, timeoutMs).addListener((FutureListener<Channel>)future -> {
+				if (!future.isSuccess())
+				{
+					promise.tryFailure(future.cause());
+					return;
+				}
+				Channel channel = future.getNow();
+				if (promise.isDone())
+				{
+					channel.close();
+					return;
+				}
+				promise.addListener(f -> channel.close());
+				channel.pipeline().addLast(new StatusResponseDecoder(promise));
+				if (proxyProtocolVersion > 0)
+				{
+					// a backend that expects the header rejects the connection without it
+					InetSocketAddress local = (InetSocketAddress)channel.localAddress();
+					InetSocketAddress remote = (InetSocketAddress)channel.remoteAddress();
+					channel.write(ProxyProtocolHeader.encode(channel.alloc(), proxyProtocolVersion, local.getAddress(), local.getPort(), remote.getAddress(), remote.getPort()));
+				}
+				channel.writeAndFlush(makeRequest(channel.alloc(), address));
+			});
+		});
+		return promise;
+	}
+
+	private static ByteBuf makeRequest(ByteBufAllocator alloc, Address address)
+	{
+		ByteBuf body = alloc.buffer();
+		PacketUtils.writeVarInt(body, 0x00);  // ClientIntentionPacket
+		PacketUtils.writeVarInt(body, PING_PROTOCOL_VERSION);
+		PacketUtils.writeString(body, address.hostname);
+		body.writeShort(address.port);
+		PacketUtils.writeVarInt(body, 1);  // status
+
+		ByteBuf buf = alloc.buffer();
+		PacketUtils.writeVarInt(buf, body.readableBytes());
+		buf.writeBytes(body);
+		body.release();
+
+		PacketUtils.writeVarInt(buf, 1);
+		PacketUtils.writeVarInt(buf, 0x00);  // ServerboundStatusRequestPacket
+		return buf;
+	}
+
+	private static class StatusResponseDecoder extends ByteToMessageDecoder
+	{
+		private final Promise<String> promise;
+
+		private StatusResponseDecoder(Promise<String> promise)
+		{
+			this.promise = promise;
+		}
+
+		@Override
+		protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+		{
+			int start = in.readerIndex();
+			int end = in.writerIndex();
+			long packetSize = PacketUtils.peekVarInt(in, start, end);
+			if (packetSize == PacketUtils.VARINT_INCOMPLETE)
+			{
+				return;
+			}
+			if (packetSize == PacketUtils.VARINT_MALFORMED || PacketUtils.varIntValue(packetSize) < 0 || PacketUtils.varIntValue(packetSize) > MAX_RESPONSE_SIZE)
+			{
+				throw new DecoderException("bad status response packet size");
+			}
+			int bodyStart = start + PacketUtils.varIntSize(packetSize);
+			int bodyEnd = bodyStart + PacketUtils.varIntValue(packetSize);
+			if (end < bodyEnd)
+			{
+				return;
+			}
+
+			long packetId = PacketUtils.peekVarInt(in, bodyStart, bodyEnd);
+			if (packetId < 0 || PacketUtils.varIntValue(packetId) != 0x00)  // ClientboundStatusResponsePacket
+			{
+				throw new DecoderException("unexpected packet, expecting a status response");
+			}
+			int stringIndex = bodyStart + PacketUtils.varIntSize(packetId);
+			long stringSize = PacketUtils.peekVarInt(in, stringIndex, bodyEnd);
+			if (stringSize < 0 || PacketUtils.varIntValue(stringSize) < 0 || stringIndex + PacketUtils.varIntSize(stringSize) + PacketUtils.varIntValue(stringSize) > bodyEnd)
+			{
+				throw new DecoderException("bad status response json");
+			}
+			String json = in.toString(stringIndex + PacketUtils.varIntSize(stringSize), PacketUtils.varIntValue(stringSize), StandardCharsets.UTF_8);
+			in.readerIndex(bodyEnd);
+			this.promise.trySuccess(json);
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception
+		{
+			this.promise.tryFailure(new IllegalStateException("connection closed before the status response"));
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+		{
+			this.promise.tryFailure(cause);
+			ctx.close();
+		}
+	}
+}
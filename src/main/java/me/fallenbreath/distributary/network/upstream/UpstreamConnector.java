@@ -0,0 +1,236 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import me.fallenbreath.distributary.config.Address;
+import me.fallenbreath.distributary.config.Config;
+import me.fallenbreath.distributary.config.SocketProfile;
+import me.fallenbreath.distributary.network.SocketProfiles;
+import me.fallenbreath.distributary.network.dns.HostResolver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Connects to a backend for a client connection, with a bounded timeout for each attempt,
+ * retries with exponential backoff and jitter, and failover to the other SRV records of the backend, then to the other backends of the route.
+ * Each attempt races the addresses of a dual-stack backend with {@link HappyEyeballs}
+ * <p>
+ * Everything happens in the event loop of the client channel, except taking over a pooled connection of the backend
+ */
+public class UpstreamConnector
+{
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final Config config;
+	private final Channel clientChannel;
+	private final List<Backend> candidates;
+	@Nullable private final SocketProfile socketProfile;
+	private final Function<Backend, ChannelHandler> handlerFactory;
+	private final Promise<Connection> promise;
+	private int candidateIndex = 0;
+	// of the current candidate, resolved once so the failover goes through all its SRV records in order
+	@Nullable private List<Address> addresses = null;
+	private int addressIndex = 0;
+	private int retries = 0;
+
+	private UpstreamConnector(Config config, Channel clientChannel, List<Backend> candidates, @Nullable SocketProfile socketProfile, Function<Backend, ChannelHandler> handlerFactory)
+	{
+		this.config = config;
+		this.clientChannel = clientChannel;
+		this.candidates = candidates;
+		this.socketProfile = socketProfile;
+		this.handlerFactory = handlerFactory;
+		this.promise = clientChannel.eventLoop().newPromise();
+	}
+
+	/**
+	 * @param candidates backends to try in order, never empty
+	 * @param socketProfile for the options that need to be set before connecting, see {@link SocketProfiles#applyBeforeConnect}
+	 * @param handlerFactory creates the handler of the upstream channel for the given backend
+	 * @return a future of the first successful connection, or the failure of the last attempt
+	 */
+	public static Future<Connection> connect(Config config, Channel clientChannel, List<Backend> candidates, @Nullable SocketProfile socketProfile, Function<Backend, ChannelHandler> handlerFactory)
+	{
+		UpstreamConnector connector = new UpstreamConnector(config, clientChannel, candidates, socketProfile, handlerFactory);
+		connector.attempt();
+		return connector.promise;
+	}
+
+	private void attempt()
+	{
+		if (!this.clientChannel.isActive())
+		{
+			this.promise.tryFailure(new ClosedChannelException());
+			return;
+		}
+
+		Backend backend = this.candidates.get(this.candidateIndex);
+		ConnectionPool.PooledConnection pooled = backend.getPool().poll();
+		if (pooled != null)
+		{
+			this.usePooled(backend, pooled);
+			return;
+		}
+		if (this.addresses != null)
+		{
+			this.resolveAndConnect(backend, this.addresses.get(this.addressIndex));
+			return;
+		}
+		backend.resolveAddresses(this.clientChannel.eventLoop(), this.config).addListener((FutureListener<List<Address>>)srvFuture -> {
+			this.addresses = srvFuture.getNow();
+			this.addressIndex = 0;
+			this.resolveAndConnect(backend, this.addresses.get(0));
+		});
+	}
+
+	private void resolveAndConnect(Backend backend, Address address)
+	{
+		HostResolver.resolve(this.clientChannel.eventLoop(), this.config, address.hostname).addListener((FutureListener<List<InetAddress>>)future -> {
+			if (future.isSuccess())
+			{
+				this.connect(backend, address, future.getNow());
+			}
+			else
+			{
+				if (this.config.isLoggingEnabled()) LOGGER.warn("Failed to resolve backend {} ({}): {}", backend, address, future.cause().toString());
+				this.onAttemptFailed(future.cause());
+			}
+		});
+	}
+
+	private void connect(Backend backend, Address address, List<InetAddress> inetAddresses)
+	{
+		long start = System.nanoTime();
+		SocketProfile socketProfile = this.socketProfile;
+		Consumer<Channel> channelInitializer = socketProfile != null ? channel -> SocketProfiles.applyBeforeConnect(channel, socketProfile) : channel -> {};
+		HappyEyeballs.connect(this.clientChannel.eventLoop(), this.clientChannel.getClass(), inetAddresses, address.port, this.config.connect_timeout_ms, channelInitializer).addListener((FutureListener<Channel>)future -> {
+			String cost = String.format("%.1f", (System.nanoTime() - start) / 1e6);
+			if (future.isSuccess())
+			{
+				Channel channel = future.getNow();
+				if (this.config.isLoggingEnabled()) LOGGER.info("Connected to backend {} ({} at {}), cost {}ms", backend, address, channel.remoteAddress(), cost);
+				channel.pipeline().addLast(this.handlerFactory.apply(backend));
+				if (!this.promise.trySuccess(new Connection(backend, address, channel)))
+				{
+					channel.close();
+				}
+			}
+			else
+			{
+				if (this.config.isLoggingEnabled()) LOGGER.warn("Failed to connect to backend {} ({}), cost {}ms: {}", backend, address, cost, future.cause().toString());
+				this.onAttemptFailed(future.cause());
+			}
+		});
+	}
+
+	/**
+	 * The pooled channel might be in another event loop of the group, so it's taken over in its own event loop,
+	 * where it cannot be closed halfway
+	 */
+	private void usePooled(Backend backend, ConnectionPool.PooledConnection pooled)
+	{
+		Channel channel = pooled.channel;
+		channel.eventLoop().execute(() -> {
+			if (!channel.isActive())
+			{
+				// closed by the backend after being polled, just try again
+				this.clientChannel.eventLoop().execute(this::attempt);
+				return;
+			}
+			if (this.config.isLoggingEnabled()) LOGGER.info("Using pooled connection to backend {} ({} at {})", backend, pooled.address, channel.remoteAddress());
+			channel.pipeline().replace(ConnectionPool.GUARD_HANDLER_NAME, null, this.handlerFactory.apply(backend));
+			if (!this.promise.trySuccess(new Connection(backend, pooled.address, channel)))
+			{
+				channel.close();
+			}
+		});
+	}
+
+	private void onAttemptFailed(Throwable cause)
+	{
+		if (this.promise.isDone())
+		{
+			// e.g. cancelled by the timeout of the whole connecting phase
+			return;
+		}
+		long delayMs = 0;
+		if (this.retries < this.config.connect_retries)
+		{
+			int baseDelay = this.config.connect_retry_delay_ms;
+			delayMs = ((long)baseDelay << this.retries) + ThreadLocalRandom.current().nextInt(baseDelay + 1);
+			this.retries++;
+		}
+		else if (this.addresses != null && this.addressIndex + 1 < this.addresses.size())
+		{
+			// fail over to the next SRV record of the backend immediately
+			this.addressIndex++;
+			this.retries = 0;
+		}
+		else
+		{
+			// fail over to the next backend immediately
+			this.candidateIndex++;
+			this.addresses = null;
+			this.retries = 0;
+			if (this.candidateIndex >= this.candidates.size())
+			{
+				this.promise.tryFailure(cause);
+				return;
+			}
+		}
+
+		if (this.config.isLoggingEnabled())
+		{
+			Backend backend = this.candidates.get(this.candidateIndex);
+			LOGGER.info("Trying backend {} in {}ms, retry #{}", this.addresses != null ? backend + " (" + this.addresses.get(this.addressIndex) + ")" : backend, delayMs, this.retries);
+		}
+		this.clientChannel.eventLoop().schedule(this::attempt, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	@SuppressWarnings("ClassCanBeRecord")
+	public static final class Connection
+	{
+		public final Backend backend;
+		public final Address address;
+		public final Channel channel;
+
+		private Connection(Backend backend, Address address, Channel channel)
+		{
+			this.backend = backend;
+			this.address = address;
+			this.channel = channel;
+		}
+	}
+}
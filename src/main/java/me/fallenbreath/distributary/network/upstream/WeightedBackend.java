@@ -0,0 +1,77 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.network.upstream;
+
+@SuppressWarnings("ClassCanBeRecord")
+public final class WeightedBackend
+{
+	// so the total weight of a route fits in an int for the random selection
+	public static final int MAX_WEIGHT = 1_000_000;
+
+	public final Backend backend;
+	public final int weight;
+
+	public WeightedBackend(Backend backend, int weight)
+	{
+		this.backend = backend;
+		this.weight = weight;
+	}
+
+	/**
+	 * Active connections per weight, compared without division
+	 */
+	boolean isLessLoadedThan(WeightedBackend other)
+	{
+		return (long)this.backend.getActiveConnections() * other.weight < (long)other.backend.getActiveConnections() * this.weight;
+	}
+
+	static int totalWeight(WeightedBackend[] backends)
+	{
+		int total = 0;
+		for (WeightedBackend backend : backends)
+		{
+			total += backend.weight;
+		}
+		return total;
+	}
+
+	/**
+	 * @param value in range [0, totalWeight)
+	 */
+	static WeightedBackend byWeightOffset(WeightedBackend[] backends, int value)
+	{
+		for (WeightedBackend backend : backends)
+		{
+			value -= backend.weight;
+			if (value < 0)
+			{
+				return backend;
+			}
+		}
+		return backends[backends.length - 1];
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.backend + "*" + this.weight;
+	}
+}
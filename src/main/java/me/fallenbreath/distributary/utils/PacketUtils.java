@@ -0,0 +1,105 @@
+/*
+ * This file is part of the Distributary project, licensed under the
+ * GNU Lesser General Public License v3.0
+ *
+ * Copyright (C) 2023  Fallen_Breath and contributors
+ *
+ * Distributary is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Distributary is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Distributary.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.fallenbreath.distributary.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minecraft packet primitives on plain {@link ByteBuf}s, without touching any Minecraft class
+ */
+public class PacketUtils
+{
+	/**
+	 * Returned by {@link #peekVarInt} if the buffer ends before the VarInt does
+	 */
+	public static final long VARINT_INCOMPLETE = -1;
+	/**
+	 * Returned by {@link #peekVarInt} if the VarInt is longer than 5 bytes
+	 */
+	public static final long VARINT_MALFORMED = -2;
+
+	/**
+	 * Reads a VarInt at the given index, without moving the reader index, without throwing
+	 *
+	 * @param end the exclusive end index of the readable region
+	 * @return the value and the byte size packed in a long, see {@link #varIntValue} and {@link #varIntSize},
+	 * or one of the negative VARINT_* constants
+	 */
+	public static long peekVarInt(ByteBuf buf, int index, int end)
+	{
+		int value = 0;
+		for (int i = 0; i < 5; i++)
+		{
+			if (index + i >= end)
+			{
+				return VARINT_INCOMPLETE;
+			}
+			byte b = buf.getByte(index + i);
+			value |= (b & 0x7F) << (i * 7);
+			if ((b & 0x80) == 0)
+			{
+				return ((long)(i + 1) << 32) | (value & 0xFFFFFFFFL);
+			}
+		}
+		return VARINT_MALFORMED;
+	}
+
+	public static int varIntValue(long peekResult)
+	{
+		return (int)peekResult;
+	}
+
+	public static int varIntSize(long peekResult)
+	{
+		return (int)(peekResult >>> 32);
+	}
+
+	public static int getVarIntSize(int value)
+	{
+		for (int i = 1; i < 5; i++)
+		{
+			if ((value & (-1 << (i * 7))) == 0)
+			{
+				return i;
+			}
+		}
+		return 5;
+	}
+
+	public static void writeVarInt(ByteBuf buf, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			buf.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf.writeByte(value);
+	}
+
+	public static void writeString(ByteBuf buf, String string)
+	{
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(buf, bytes.length);
+		buf.writeBytes(bytes);
+	}
+}